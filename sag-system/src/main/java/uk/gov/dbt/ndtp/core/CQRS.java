@@ -27,15 +27,21 @@ package uk.gov.dbt.ndtp.core;
 
 import static java.lang.String.format;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.lib.Bytes;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.atlas.logging.Log;
@@ -51,9 +57,11 @@ import org.apache.jena.rdfpatch.text.TokenWriter;
 import org.apache.jena.rdfpatch.text.TokenWriterText;
 import org.apache.jena.riot.WebContent;
 import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
 import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
 import org.apache.jena.sparql.util.Symbol;
-import org.apache.jena.system.buffering.BufferingDatasetGraph;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
@@ -71,6 +79,28 @@ public class CQRS {
     public static Logger LOG = LoggerFactory.getLogger("uk.gov.dbt.ndtp.CQRS");
     /** Context symbol for Kafka topic */
     public static Symbol symKafkaTopic = Symbol.create("kafka:topic");
+    /** HTTP response header giving the offset of the patch in the Kafka topic. */
+    public static final String H_KAFKA_OFFSET = "Kafka-Offset";
+
+    /**
+     * Configuration: size, in bytes, of the largest RDF Patch of an update held
+     * in memory and sent as one Kafka record. A larger patch is written to a
+     * temporary file and sent as records of this size (see {@link PatchChunks}).
+     * 0, the default, means no limit: every patch is sent as one record. Set
+     * only when all consumers of the topic understand chunked patches.
+     */
+    public static final String PATCH_CHUNK_BYTES = "CQRS_PATCH_CHUNK_BYTES";
+
+    private static final int patchChunkBytes = Configurator.get(PATCH_CHUNK_BYTES, Integer::parseInt, 0);
+
+    /**
+     * Configuration: number of quads added or deleted by an update held in
+     * memory. Beyond this, the changes are moved to a temporary database on disk
+     * until the update finishes. 0 means no limit.
+     */
+    public static final String BUFFER_SPILL_THRESHOLD = "CQRS_BUFFER_SPILL_THRESHOLD";
+
+    private static final long bufferSpillThreshold = Configurator.get(BUFFER_SPILL_THRESHOLD, Long::parseLong, 250_000L);
 
     public static class Vocab {
         public static String NS = "http://ndtp.co.uk/cqrs#";
@@ -87,7 +117,13 @@ public class CQRS {
         Producer<String, byte[]> producer = (producerProperties == null)
                 ? null
                 : new KafkaProducer<>(producerProperties, new StringSerializer(), new ByteArraySerializer());
-        return new SPARQL_Update_CQRS(topic, producer, onBegin, onCommit, onAbort);
+        return updateAction(topic, producer);
+    }
+
+    /** An update {@link ActionService} sending patches with the given producer. */
+    static ActionService updateAction(String topic, Producer<String, byte[]> producer) {
+        PatchGroupCommit groupCommit = PatchGroupCommit.create(topic, producer);
+        return new SPARQL_Update_CQRS(topic, producer, groupCommit, onBegin, onCommit, onAbort);
     }
 
     /**
@@ -96,6 +132,7 @@ public class CQRS {
      */
     static UpdateCQRS startOperation(String topic,
                                      Producer<String, byte[]> producer,
+                                     PatchGroupCommit groupCommit,
                                      HttpAction action,
                                      Consumer<HttpAction> onBegin,
                                      Consumer<HttpAction> onCommit,
@@ -104,11 +141,12 @@ public class CQRS {
         DatasetGraph dsgBase = action.getActiveDSG();
         String hSecurityLabel = action.getRequestHeader(SysABAC.H_SECURITY_LABEL);
 
-        BufferingDatasetGraph dsgBuffering = new BufferingDatasetGraph(dsgBase);
+        SpillingBufferingDatasetGraph dsgBuffering = new SpillingBufferingDatasetGraph(dsgBase, bufferSpillThreshold);
         // Writing the patch log.
-        ByteArrayOutputStream bout = new ByteArrayOutputStream(8*1024);
+        PatchBuffer bout = new PatchBuffer(patchChunkBytes);
         TokenWriter tok = TokenWriterText.create(bout);
         RDFChangesWriterText changesWriter = new RDFChangesWriterText(tok);
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
 
         // Manage transaction change record here so we can terminate the patch
         // (i.e. write "TX") before and separately from the dataset commit.
@@ -117,13 +155,13 @@ public class CQRS {
             @Override public void txnCommit() { if ( onCommit != null ) onCommit.accept(action) ; }
             @Override public void txnAbort()  { if ( onAbort != null )  onAbort.accept(action) ; }
         };
-        DatasetGraph dsgOperation = RDFPatchOps.changes(dsgBuffering, changes);
+        DatasetGraph dsgOperation = RDFPatchOps.changes(writeView(dsgBuffering), changes);
 
         // Record the details of the setup.
         UpdateCQRS updateCtl = new UpdateCQRS(topic, dsgBase,
                                               bout, tok, changesWriter, changes,
                                               dsgBuffering, dsgOperation, hSecurityLabel,
-                                              producer);
+                                              producer, groupCommit, published);
         // XXX RemoveMe and pass UpdateCQRS to on*
         // Add to the action context so it is carried through the update.
         action.getContext().set(symbol, updateCtl);
@@ -133,17 +171,33 @@ public class CQRS {
         return updateCtl;
     }
 
+    /**
+     * The buffering dataset as seen by the update. The update may run in a read
+     * transaction on the base dataset, but it writes, to the buffer, so this
+     * reports a write transaction.
+     */
+    private static DatasetGraph writeView(SpillingBufferingDatasetGraph dsgBuffering) {
+        return new DatasetGraphWrapper(dsgBuffering) {
+            @Override public boolean isInTransaction()      { return true; }
+            @Override public ReadWrite transactionMode()    { return ReadWrite.WRITE; }
+            @Override public TxnType transactionType()      { return TxnType.WRITE; }
+        };
+    }
+
     static void finishOperation(HttpAction action, UpdateCQRS updateCtl) {
         onCommit.accept(action);
         updateCtl.changes.finish();
     }
 
     public record UpdateCQRS(String topic, DatasetGraph dsgBase,
-                             ByteArrayOutputStream bout, TokenWriter tok, RDFChangesWriterText changesWriter, RDFChanges changes,
-                             BufferingDatasetGraph datasetBuffering,
+                             PatchBuffer bout, TokenWriter tok, RDFChangesWriterText changesWriter, RDFChanges changes,
+                             SpillingBufferingDatasetGraph datasetBuffering,
                              DatasetGraph dataset, // Operate on this DataestGraph
                              String securityLabelHeader,
-                             Producer<String, byte[]> producer) {}
+                             Producer<String, byte[]> producer,
+                             PatchGroupCommit groupCommit, // May be null
+                             // Completed when Kafka acknowledges the patch; null metadata if not connected.
+                             CompletableFuture<RecordMetadata> published) {}
 
     /** Used to pass the addition information through the HttpActionLifecycle. */
     private static Symbol symbol = Symbol.create("cqrs:update");
@@ -176,24 +230,33 @@ public class CQRS {
         changesCtl.tok.flush();
 
         boolean isConnected = (changesCtl.producer != null);
-        byte[] kBody = changesCtl.bout.toByteArray();
-        int addCount = changesCtl.datasetBuffering.getAddedTriples().size();
-        int delCount = changesCtl.datasetBuffering.getDeletedTriples().size();
+        PatchBuffer patch = changesCtl.bout;
+        long addCount = changesCtl.datasetBuffering.addedCount();
+        long delCount = changesCtl.datasetBuffering.deletedCount();
         Log.info(action.log, format("[%d] CQRS Patch: Add=%,d : Del=%,d", action.id, addCount, delCount));
 
-        if ( isConnected ) {
-            List<Header> sendHeaders;
-            Header headerContentType = kafkaHeader(HttpNames.hContentType, WebContent.contentTypePatch);
-            if ( changesCtl.securityLabelHeader != null ) {
-                Header headerSecurityLabel = kafkaHeader(SysABAC.H_SECURITY_LABEL, changesCtl.securityLabelHeader);
-                sendHeaders = List.of(headerContentType, headerSecurityLabel);
+        try {
+            if ( isConnected ) {
+                // Queued for sending, in commit order, while the transaction is held;
+                // the acknowledgement is waited for after the transaction ends.
+                List<Header> headers = patchHeaders(changesCtl.securityLabelHeader);
+                if ( patch.isSpilled() ) {
+                    if ( changesCtl.groupCommit != null )
+                        changesCtl.groupCommit.flush();
+                    sendChunked(changesCtl.producer, changesCtl.topic, headers, patch, patchChunkBytes, changesCtl.published);
+                } else if ( changesCtl.groupCommit != null )
+                    changesCtl.groupCommit.add(changesCtl.securityLabelHeader, patch.toByteArray(), changesCtl.published);
+                else
+                    sendToKafkaAsync(changesCtl.producer, changesCtl.topic, headers, patch.toByteArray(), changesCtl.published);
             } else {
-                sendHeaders = List.of(headerContentType);
+                if ( ! patch.isSpilled() )
+                    System.out.print(Bytes.bytes2string(patch.toByteArray()));
+                FmtLog.info(LOG, "Send to Kafka: topic=%s bytes=%d", changesCtl.topic, patch.size());
+                changesCtl.published.complete(null);
             }
-            sendToKafka(changesCtl.producer, changesCtl.topic, sendHeaders, kBody);
-        } else {
-            System.out.print(Bytes.bytes2string(kBody));
-            FmtLog.info(LOG, "Send to Kafka: topic=%s bytes=%d", changesCtl.topic, kBody.length);
+        } finally {
+            patch.delete();
+            changesCtl.datasetBuffering.close();
         }
         action.getContext().remove(symbol);
     }
@@ -208,31 +271,108 @@ public class CQRS {
             FmtLog.warn(LOG, "[%d] onAbort: No UpdateCQRS record", action.id);
             return;
         }
+        changesCtl.bout.delete();
+        changesCtl.datasetBuffering.close();
         action.getContext().remove(symbol);
     }
 
+    /** Release an update that did not complete, removing any temporary files of its changes. */
+    static void release(UpdateCQRS updateCtl) {
+        if ( updateCtl == null )
+            return;
+        updateCtl.bout.delete();
+        updateCtl.datasetBuffering.close();
+    }
+
+    /**
+     * Wait for the patch of an update to be acknowledged by Kafka, and set the
+     * {@value #H_KAFKA_OFFSET} response header. Called after the dataset
+     * transaction has ended, so other updates are not held up by the round trip
+     * to the broker.
+     */
+    static void awaitPublished(HttpAction action, CompletableFuture<RecordMetadata> published) {
+        RecordMetadata res = await(published);
+        if ( res != null && res.hasOffset() )
+            action.setResponseHeader(H_KAFKA_OFFSET, Long.toString(res.offset()));
+    }
+
+    /** Kafka headers for an RDF Patch, with the {@code Security-Label} header if given. */
+    static List<Header> patchHeaders(String securityLabelHeader) {
+        Header headerContentType = kafkaHeader(HttpNames.hContentType, WebContent.contentTypePatch);
+        if ( securityLabelHeader == null )
+            return List.of(headerContentType);
+        return List.of(headerContentType, kafkaHeader(SysABAC.H_SECURITY_LABEL, securityLabelHeader));
+    }
+
+    /**
+     * Send a patch as ordered chunks of at most {@code chunkSize} bytes, each
+     * with the {@code Patch-Id}, {@code Patch-Chunk} and {@code Patch-Chunks}
+     * headers. {@code published} is completed when the last chunk is
+     * acknowledged, or when any chunk fails.
+     */
+    static void sendChunked(Producer<String, byte[]> producer, String topic, List<Header> headers,
+                            PatchBuffer patch, int chunkSize, CompletableFuture<RecordMetadata> published) {
+        String patchId = UUID.randomUUID().toString();
+        int count = (int)Math.max(1, (patch.size() + chunkSize - 1) / chunkSize);
+        List<CompletableFuture<RecordMetadata>> sent = new ArrayList<>(count);
+        try ( InputStream input = patch.open() ) {
+            for ( int i = 0 ; i < count ; i++ ) {
+                List<Header> chunkHeaders = new ArrayList<>(headers);
+                chunkHeaders.add(kafkaHeader(IANodeKafka.TF_PATCH_ID, patchId));
+                chunkHeaders.add(kafkaHeader(IANodeKafka.TF_PATCH_CHUNK, Integer.toString(i)));
+                chunkHeaders.add(kafkaHeader(IANodeKafka.TF_PATCH_CHUNKS, Integer.toString(count)));
+                CompletableFuture<RecordMetadata> chunkSent = new CompletableFuture<>();
+                sendToKafkaAsync(producer, topic, chunkHeaders, input.readNBytes(chunkSize), chunkSent);
+                sent.add(chunkSent);
+            }
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+        FmtLog.info(LOG, "[%s] Patch %s: %,d bytes in %d chunks", topic, patchId, patch.size(), count);
+        CompletableFuture.allOf(sent.toArray(CompletableFuture[]::new)).whenComplete((x, ex) -> {
+            if ( ex != null )
+                published.completeExceptionally(( ex instanceof CompletionException ) ? ex.getCause() : ex);
+            else
+                published.complete(sent.get(count - 1).join());
+        });
+    }
+
     /**
      * Send to the Kafka topic.
      */
     protected static <K,V> long sendToKafka(Producer<K,V> producer, String topic, List<Header> sendHeaders, V content) {
-        RecordMetadata res = sendToKafka(producer, null, topic, sendHeaders, content);
-        FmtLog.info(LOG, "[%s] Send: Offset = %d", topic, res.offset());
-        return res.offset();
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
+        sendToKafkaAsync(producer, topic, sendHeaders, content, published);
+        return await(published).offset();
     }
 
-    // Worker to actually send to Kafka.
-    private static <K,V> RecordMetadata sendToKafka(Producer<K, V> producer, Integer partition, String topic, List<Header> headers, V body) {
+    /**
+     * Send to the Kafka topic without waiting; {@code published} is completed
+     * when the record is acknowledged, or fails.
+     */
+    static <K,V> void sendToKafkaAsync(Producer<K,V> producer, String topic, List<Header> headers, V body,
+                                       CompletableFuture<RecordMetadata> published) {
+        ProducerRecord<K, V> pRec = new ProducerRecord<>(topic, null, null, null, body, headers);
+        producer.send(pRec, (metadata, ex) -> {
+            if ( ex != null ) {
+                published.completeExceptionally(ex);
+                return;
+            }
+            FmtLog.info(LOG, "[%s] Send: Offset = %d", topic, metadata.offset());
+            published.complete(metadata);
+        });
+    }
+
+    private static RecordMetadata await(CompletableFuture<RecordMetadata> published) {
         try {
-            ProducerRecord<K, V> pRec = new ProducerRecord<>(topic, partition, null, null, body, headers);
-            Future<RecordMetadata> f = producer.send(pRec);
-            return f.get();
+            return published.get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new JenaKafkaException("Thread was interrupted while sending Kafka message", e);
         } catch (ExecutionException e) {
-            throw new JenaKafkaException("Failed to send Kafka message", e);
+            throw new JenaKafkaException("Failed to send Kafka message", e.getCause());
         }
-}
+    }
 
     static Header kafkaHeader(String key, String value) {
         return new RecordHeader(key, value.getBytes(StandardCharsets.UTF_8));
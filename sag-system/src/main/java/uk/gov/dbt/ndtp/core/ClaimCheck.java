@@ -0,0 +1,273 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.RiotException;
+
+/**
+ * Kafka messages whose body is in a file rather than in the message
+ * ("claim-check").
+ * <p>
+ * A message with a {@link IANodeKafka#TF_PAYLOAD_LOCATION} header names a file
+ * under the configured claim-check directory, usually a shared or mounted
+ * filesystem, and gives its SHA-256 digest in
+ * {@link IANodeKafka#TF_PAYLOAD_SHA256}. The other headers (Content-Type,
+ * Content-Encoding, Security-Label) apply to the file as they would to the
+ * message value.
+ * <p>
+ * The file is streamed from disk to the parser, so a payload is never held in
+ * memory, and is read once: the digest is computed as the file is read. When
+ * the end of the file is reached, a file that does not match its digest fails
+ * the message, as a parse error at the end of the file would. As with a parse
+ * error, the data read before then is discarded only if the message is
+ * isolated ({@link FKProcessorSAG#ENABLE_MESSAGE_ISOLATION}).
+ */
+public class ClaimCheck {
+
+    /**
+     * Configuration: directory that claim-check payloads are read from.
+     * If not set, messages with a {@link IANodeKafka#TF_PAYLOAD_LOCATION} header are rejected.
+     */
+    public static final String CLAIM_CHECK_DIR = "KAFKA_CLAIM_CHECK_DIR";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The real path of the claim-check directory, once it has been found.
+    private static volatile Path root = null;
+
+    private ClaimCheck() {}
+
+    /** Whether the message body is in a claim-check file. */
+    static boolean isClaimCheck(RequestFK request) {
+        return request.getHeaders().get(IANodeKafka.TF_PAYLOAD_LOCATION) != null;
+    }
+
+    /**
+     * Size of the message body: the size of the claim-check file if there is
+     * one (0 if it can not be found), otherwise the size of the message value.
+     */
+    static long byteCount(RequestFK request) {
+        if ( ! isClaimCheck(request) )
+            return request.getByteCount();
+        try {
+            Path base = root();
+            if ( base == null )
+                return 0;
+            // Only the size: the file is checked when it is opened.
+            Path file = base.resolve(request.getHeaders().get(IANodeKafka.TF_PAYLOAD_LOCATION)).normalize();
+            return file.startsWith(base) ? Files.size(file) : 0;
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * The real path of the configured claim-check directory, or null if not
+     * configured. Found once; not remembered if it does not exist yet.
+     */
+    private static Path root() throws IOException {
+        Path base = root;
+        if ( base != null )
+            return base;
+        String dir = Configurator.get(CLAIM_CHECK_DIR);
+        if ( dir == null )
+            return null;
+        base = Path.of(dir).toRealPath();
+        root = base;
+        return base;
+    }
+
+    /**
+     * Return a stream of the message body. If the message is not a claim-check,
+     * {@code data} is returned unchanged. The stream of a claim-check file should
+     * be closed by the caller.
+     *
+     * @throws RiotException if claim-checks are not enabled, or the file can not be
+     *     read or is outside the claim-check directory. Reading the stream throws
+     *     a RiotException at the end of the file if it does not match its digest.
+     */
+    static InputStream open(RequestFK request, InputStream data) {
+        if ( ! isClaimCheck(request) )
+            return data;
+        Path base;
+        try {
+            base = root();
+        } catch (IOException ex) {
+            throw new RiotException("Claim-check directory: " + ex.getMessage());
+        }
+        if ( base == null )
+            throw new RiotException("Claim-check message but " + CLAIM_CHECK_DIR + " is not set");
+        return openIn(request, base);
+    }
+
+    static InputStream open(RequestFK request, Path dir) {
+        try {
+            return openIn(request, dir.toRealPath());
+        } catch (IOException ex) {
+            throw new RiotException("Claim-check directory: " + ex.getMessage());
+        }
+    }
+
+    /** Open a claim-check file; {@code base} is the real path of the directory. */
+    private static InputStream openIn(RequestFK request, Path base) {
+        String location = request.getHeaders().get(IANodeKafka.TF_PAYLOAD_LOCATION);
+        String digest = request.getHeaders().get(IANodeKafka.TF_PAYLOAD_SHA256);
+        if ( digest == null || digest.isBlank() )
+            throw new RiotException("Claim-check " + location + ": no " + IANodeKafka.TF_PAYLOAD_SHA256 + " header");
+        byte[] expected;
+        try {
+            expected = HexFormat.of().parseHex(digest.trim());
+        } catch (IllegalArgumentException ex) {
+            throw new RiotException("Claim-check " + location + ": bad " + IANodeKafka.TF_PAYLOAD_SHA256 + " header");
+        }
+        Path file = resolve(base, location);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+            InputStream checked = new DigestCheckingInputStream(Channels.newInputStream(channel), location, expected, channel.size());
+            return new BufferedInputStream(checked, BUFFER_SIZE);
+        } catch (IOException ex) {
+            closeQuietly(channel);
+            throw new RiotException("Claim-check " + location + ": " + ex.getMessage());
+        } catch (RuntimeException ex) {
+            closeQuietly(channel);
+            throw ex;
+        }
+    }
+
+    /** The file for a location, which must be inside the claim-check directory, given as a real path. */
+    private static Path resolve(Path base, String location) {
+        try {
+            Path file = base.resolve(location).toRealPath();
+            if ( ! file.startsWith(base) || ! Files.isRegularFile(file) )
+                throw new RiotException("Claim-check " + location + ": not a file in the claim-check directory");
+            return file;
+        } catch (IOException ex) {
+            throw new RiotException("Claim-check " + location + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Computes the SHA-256 digest of the bytes read, and checks it once the size
+     * of the file when it was opened has been read, or at the end of the file if
+     * that comes first. A compressed body may not be read to the end of the file,
+     * but all of its bytes are. A file that grows while it is read fails.
+     */
+    private static class DigestCheckingInputStream extends FilterInputStream {
+        private final String location;
+        private final byte[] expected;
+        private final long size;
+        private final MessageDigest md;
+        private long count = 0;
+        private boolean checked = false;
+
+        DigestCheckingInputStream(InputStream in, String location, byte[] expected, long size) {
+            super(in);
+            this.location = location;
+            this.expected = expected;
+            this.size = size;
+            try {
+                this.md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if ( b >= 0 ) {
+                md.update((byte)b);
+                count++;
+            }
+            check(b < 0);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            int n = in.read(bytes, off, len);
+            if ( n > 0 ) {
+                md.update(bytes, off, n);
+                count += n;
+            }
+            check(n < 0);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are part of the digest.
+            if ( n <= 0 )
+                return 0;
+            byte[] bytes = new byte[(int)Math.min(n, BUFFER_SIZE)];
+            int x = read(bytes, 0, bytes.length);
+            return Math.max(x, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void check(boolean eof) {
+            if ( checked ) {
+                if ( count > size )
+                    throw new RiotException("Claim-check " + location + ": changed while being read");
+                return;
+            }
+            if ( ! eof && count < size )
+                return;
+            checked = true;
+            if ( count != size || ! MessageDigest.isEqual(md.digest(), expected) )
+                throw new RiotException("Claim-check " + location + ": SHA-256 mismatch");
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if ( channel == null )
+            return;
+        try {
+            channel.close();
+        } catch (IOException ex) {}
+    }
+}
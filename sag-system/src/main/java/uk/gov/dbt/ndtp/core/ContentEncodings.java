@@ -0,0 +1,76 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.RiotException;
+
+/**
+ * Decoding of Kafka message bodies sent with a {@code Content-Encoding} header
+ * ({@link IANodeKafka#TF_CONTENT_ENCODING}).
+ * <p>
+ * Supported encodings are {@code gzip}, {@code zstd} and {@code lz4} (LZ4 frame
+ * format). The body is decoded as it is read by the parser; it is not
+ * decompressed into memory first.
+ */
+class ContentEncodings {
+
+    private ContentEncodings() {}
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Return a stream of the decoded body of a request.
+     * If there is no {@code Content-Encoding}, or it is {@code identity}, the input is returned unchanged.
+     *
+     * @throws RiotException if the encoding is not supported or the body does not start as expected for the encoding.
+     */
+    static InputStream decode(RequestFK request, InputStream input) {
+        String encoding = request.getHeaders().get(IANodeKafka.TF_CONTENT_ENCODING);
+        if ( encoding == null )
+            return input;
+        encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        try {
+            return switch (encoding) {
+                case "", "identity" -> input;
+                case "gzip", "x-gzip" -> new GZIPInputStream(input, BUFFER_SIZE);
+                case "zstd" -> new BufferedInputStream(new ZstdInputStream(input), BUFFER_SIZE);
+                case "lz4" -> new BufferedInputStream(new LZ4FrameInputStream(input), BUFFER_SIZE);
+                default -> throw new RiotException("Unsupported Content-Encoding: " + encoding);
+            };
+        } catch (IOException ex) {
+            throw new RiotException("Content-Encoding " + encoding + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,293 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.kafka.FusekiKafka;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+
+/**
+ * Kafka messages that failed to be applied to the database, kept so that they
+ * can be inspected and replayed.
+ * <p>
+ * Each failure is appended, as one line of JSON, to a journal file for the
+ * dataset: the message headers and body, the topic and offset, and the error.
+ * Replaying a message appends a marker line; the journal is never rewritten.
+ * Optionally, failed messages are also sent to a dead-letter topic, with the
+ * error, source topic and offset as extra headers.
+ * <p>
+ * Nothing is done for a message that is applied successfully.
+ */
+public class DeadLetterJournal {
+
+    private static Logger LOG = FusekiKafka.LOG;
+
+    /** Configuration: directory for the dead-letter journals, one file per dataset. */
+    public static final String DEAD_LETTER_DIR = "KAFKA_DEAD_LETTER_DIR";
+
+    /** Configuration: Kafka topic that failed messages are sent to. */
+    public static final String DEAD_LETTER_TOPIC = "KAFKA_DEAD_LETTER_TOPIC";
+
+    /** Header added to a message sent to the dead-letter topic: the error. */
+    public static final String H_ERROR = "Dead-Letter-Error";
+    /** Header added to a message sent to the dead-letter topic: the topic the message was read from. */
+    public static final String H_SOURCE_TOPIC = "Dead-Letter-Topic";
+    /** Header added to a message sent to the dead-letter topic: the offset of the message. */
+    public static final String H_SOURCE_OFFSET = "Dead-Letter-Offset";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** A journalled message. */
+    public record Entry(long seq, String topic, long offset, RequestFK request) {}
+
+    private final Path file;
+    private final String dlqTopic;
+    private final Producer<String, byte[]> producer;
+    private long nextSeq = 0;
+
+    /**
+     * The dead-letter journal for a dataset, as configured, or null if neither a
+     * journal directory nor a dead-letter topic is configured.
+     */
+    static DeadLetterJournal create(String datasetName, Properties consumerProperties) {
+        String dir = Configurator.get(DEAD_LETTER_DIR);
+        String topic = Configurator.get(DEAD_LETTER_TOPIC);
+        if ( dir == null && topic == null )
+            return null;
+        Path file = null;
+        if ( dir != null ) {
+            String filename = datasetName.replaceAll("[^A-Za-z0-9._-]", "_") + ".deadletters.jsonl";
+            file = Path.of(dir, filename);
+        }
+        Producer<String, byte[]> producer = (topic != null && consumerProperties != null)
+                ? new KafkaProducer<>(producerProperties(consumerProperties), new StringSerializer(), new ByteArraySerializer())
+                : null;
+        return new DeadLetterJournal(file, topic, producer);
+    }
+
+    /**
+     * Properties for the dead-letter producer, from the connector's consumer
+     * properties: only the broker address and the security settings are copied,
+     * not consumer settings such as the group or the deserializers.
+     */
+    static Properties producerProperties(Properties consumerProperties) {
+        Properties props = new Properties();
+        for ( String name : consumerProperties.stringPropertyNames() ) {
+            if ( name.equals("bootstrap.servers") || name.equals("security.protocol")
+                 || name.startsWith("sasl.") || name.startsWith("ssl.") )
+                props.put(name, consumerProperties.get(name));
+        }
+        return props;
+    }
+
+    /**
+     * @param file     Journal file; may be null for no journal.
+     * @param dlqTopic Dead-letter topic; may be null.
+     * @param producer Producer for the dead-letter topic; may be null.
+     */
+    DeadLetterJournal(Path file, String dlqTopic, Producer<String, byte[]> producer) {
+        this.file = file;
+        this.dlqTopic = dlqTopic;
+        this.producer = producer;
+        if ( file != null ) {
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            readLines().stream()
+                       .filter(n -> n.has("seq"))
+                       .mapToLong(n -> n.get("seq").asLong())
+                       .max()
+                       .ifPresent(max -> nextSeq = max + 1);
+        }
+    }
+
+    /** Whether failed messages are kept locally and so can be listed and replayed. */
+    public boolean hasJournal() {
+        return file != null;
+    }
+
+    /**
+     * Record a failed message.
+     * Errors writing the journal are logged; they do not stop the Kafka connector.
+     */
+    public synchronized void record(String id, RequestFK request, long offset, String error) {
+        String errorText = Objects.requireNonNullElse(error, "Unknown error");
+        if ( file != null ) {
+            ObjectNode node = MAPPER.createObjectNode();
+            node.put("seq", nextSeq);
+            node.put("time", Instant.now().toString());
+            node.put("id", id);
+            node.put("topic", request.getTopic());
+            node.put("offset", offset);
+            node.put("error", errorText);
+            ObjectNode headers = node.putObject("headers");
+            request.getHeaders().forEach(headers::put);
+            node.put("body", Base64.getEncoder().encodeToString(request.getBytes()));
+            if ( append(node) ) {
+                FmtLog.warn(LOG, "[%s] Dead letter %d: offset %d", id, nextSeq, offset);
+                nextSeq++;
+            }
+        }
+        if ( producer != null )
+            send(id, request, offset, errorText);
+    }
+
+    private void send(String id, RequestFK request, long offset, String error) {
+        List<Header> headers = new ArrayList<>();
+        request.getHeaders().forEach((k, v) -> headers.add(CQRS.kafkaHeader(k, v)));
+        headers.add(CQRS.kafkaHeader(H_ERROR, error));
+        headers.add(CQRS.kafkaHeader(H_SOURCE_TOPIC, request.getTopic()));
+        headers.add(CQRS.kafkaHeader(H_SOURCE_OFFSET, Long.toString(offset)));
+        ProducerRecord<String, byte[]> pRec = new ProducerRecord<>(dlqTopic, null, null, id, request.getBytes(), headers);
+        // Not waited for; the Kafka connector carries on.
+        producer.send(pRec, (metadata, ex) -> {
+            if ( ex != null )
+                FmtLog.error(LOG, "[%s] Failed to send to dead-letter topic %s: %s", id, dlqTopic, ex.getMessage());
+        });
+    }
+
+    /**
+     * The journalled messages, without their bodies, in the order they failed,
+     * each with a flag for whether it has been replayed.
+     */
+    public synchronized ArrayNode list() {
+        ArrayNode array = MAPPER.createArrayNode();
+        Map<Long, ObjectNode> entries = new LinkedHashMap<>();
+        for ( JsonNode node : readLines() ) {
+            if ( node.has("seq") ) {
+                ObjectNode summary = ((ObjectNode)node).deepCopy();
+                summary.remove("body");
+                summary.put("size", Base64.getDecoder().decode(node.path("body").asText()).length);
+                summary.put("replayed", false);
+                entries.put(node.get("seq").asLong(), summary);
+            } else if ( node.has("replayed") ) {
+                ObjectNode summary = entries.get(node.get("replayed").asLong());
+                if ( summary != null )
+                    summary.put("replayed", true);
+            }
+        }
+        entries.values().forEach(array::add);
+        return array;
+    }
+
+    /**
+     * The messages to replay: the given entry, or all entries not yet replayed
+     * if {@code seq} is null.
+     */
+    public synchronized List<Entry> pending(Long seq) {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        for ( JsonNode node : readLines() ) {
+            if ( node.has("seq") ) {
+                long n = node.get("seq").asLong();
+                if ( seq == null || seq == n )
+                    entries.put(n, toEntry(node));
+            } else if ( node.has("replayed") && seq == null ) {
+                entries.remove(node.get("replayed").asLong());
+            }
+        }
+        return List.copyOf(entries.values());
+    }
+
+    /** Record that an entry has been replayed. */
+    public synchronized void markReplayed(long seq) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("replayed", seq);
+        node.put("time", Instant.now().toString());
+        append(node);
+    }
+
+    /** Release the dead-letter topic producer. */
+    public void close() {
+        if ( producer != null )
+            producer.close();
+    }
+
+    private static Entry toEntry(JsonNode node) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        node.path("headers").fields().forEachRemaining(e -> headers.put(e.getKey(), e.getValue().asText()));
+        byte[] body = Base64.getDecoder().decode(node.path("body").asText());
+        String topic = node.path("topic").asText();
+        RequestFK request = new RequestFK(topic, headers, body);
+        return new Entry(node.get("seq").asLong(), topic, node.path("offset").asLong(-1), request);
+    }
+
+    private boolean append(ObjectNode node) {
+        try {
+            String line = MAPPER.writeValueAsString(node) + "\n";
+            Files.writeString(file, line, StandardCharsets.UTF_8,
+                              StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            return true;
+        } catch (IOException ex) {
+            FmtLog.error(LOG, "Failed to write dead-letter journal %s: %s", file, ex.getMessage());
+            return false;
+        }
+    }
+
+    private List<JsonNode> readLines() {
+        if ( file == null || !Files.exists(file) )
+            return List.of();
+        List<JsonNode> nodes = new ArrayList<>();
+        try {
+            for ( String line : Files.readAllLines(file, StandardCharsets.UTF_8) ) {
+                if ( line.isBlank() )
+                    continue;
+                try {
+                    nodes.add(MAPPER.readTree(line));
+                } catch (JsonProcessingException ex) {
+                    // A partial line from an interrupted write.
+                    FmtLog.warn(LOG, "Skipping bad line in dead-letter journal %s", file);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,155 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.jena.kafka.RequestFK;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+/**
+ * Servlet to list and replay the dead letters of the Kafka connectors.
+ * <p>
+ * {@code GET /$/deadletters/list/{dataset}} lists the failed messages of a
+ * dataset; without a dataset, all datasets with a dead-letter journal are listed.
+ * <p>
+ * {@code POST /$/deadletters/replay/{dataset}?seq=N} applies the message
+ * again; without {@code seq}, all messages not yet replayed are applied. Each
+ * message is applied by the connector for the topic it was read from; messages
+ * from a topic that no longer has a connector are skipped.
+ * <p>
+ * Access control: these paths are not in the JWT path exclusions (see
+ * {@link FMod_JwtServletAuth}), so when JWT authentication is enabled a request
+ * needs a valid token, as for the other administration endpoints. There is no
+ * further check of the user's role. Without the JWT module, they are open, and
+ * should only be reachable on an administration network.
+ */
+class DeadLetterServlet extends HttpServlet {
+
+    private final FMod_FusekiKafkaSAG module;
+    private final boolean replay;
+
+    DeadLetterServlet(FMod_FusekiKafkaSAG module, boolean replay) {
+        this.module = module;
+        this.replay = replay;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        if ( replay ) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        ObjectNode resultNode = BackupUtils.MAPPER.createObjectNode();
+        try {
+            String dataset = request.getPathInfo();
+            if ( BackupUtils.requestIsEmpty(dataset) ) {
+                ObjectNode listNode = resultNode.putObject("list");
+                module.deadLetters.forEach((name, journal) -> {
+                    if ( journal.hasJournal() )
+                        listNode.set(name, journal.list());
+                });
+                BackupUtils.processResponse(response, resultNode);
+                return;
+            }
+            resultNode.put("dataset", dataset);
+            DeadLetterJournal journal = journal(dataset, response, resultNode);
+            if ( journal == null )
+                return;
+            resultNode.set("list", journal.list());
+            BackupUtils.processResponse(response, resultNode);
+        } catch (Exception exception) {
+            BackupUtils.handleError(response, resultNode, exception);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) {
+        if ( ! replay ) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        ObjectNode resultNode = BackupUtils.MAPPER.createObjectNode();
+        try {
+            String dataset = request.getPathInfo();
+            resultNode.put("dataset", dataset);
+            DeadLetterJournal journal = journal(dataset, response, resultNode);
+            if ( journal == null )
+                return;
+            String seqParam = request.getParameter("seq");
+            Long seq = ( seqParam == null ) ? null : Long.valueOf(seqParam);
+            // Each topic in turn, in the order the topics first appear in the journal.
+            Map<String, List<DeadLetterJournal.Entry>> byTopic = new LinkedHashMap<>();
+            journal.pending(seq).forEach(e -> byTopic.computeIfAbsent(e.topic(), t -> new ArrayList<>()).add(e));
+            int replayed = 0;
+            int skipped = 0;
+            for ( Map.Entry<String, List<DeadLetterJournal.Entry>> topicEntries : byTopic.entrySet() ) {
+                List<DeadLetterJournal.Entry> entries = topicEntries.getValue();
+                FKBatchProcessorSAG batchProcessor = module.batchProcessors.get(topicEntries.getKey());
+                if ( batchProcessor == null ) {
+                    skipped += entries.size();
+                    continue;
+                }
+                List<RequestFK> requests = entries.stream().map(DeadLetterJournal.Entry::request).toList();
+                Map<RequestFK, Long> offsets = new IdentityHashMap<>();
+                entries.forEach(e -> offsets.put(e.request(), e.offset()));
+                batchProcessor.replay(requests, offsets);
+                entries.forEach(e -> journal.markReplayed(e.seq()));
+                replayed += entries.size();
+            }
+            resultNode.put("replayed", replayed);
+            if ( skipped > 0 )
+                resultNode.put("skipped", skipped);
+            BackupUtils.processResponse(response, resultNode);
+        } catch (NumberFormatException exception) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            resultNode.put("error", "Bad seq parameter: " + exception.getMessage());
+            BackupUtils.processResponse(response, resultNode);
+        } catch (Exception exception) {
+            BackupUtils.handleError(response, resultNode, exception);
+        }
+    }
+
+    /** The journal for a dataset, or null after setting a "not found" response. */
+    private DeadLetterJournal journal(String dataset, HttpServletResponse response, ObjectNode resultNode) {
+        DeadLetterJournal journal = BackupUtils.requestIsEmpty(dataset) ? null : module.deadLetters.get(dataset);
+        if ( journal == null || ! journal.hasJournal() ) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            resultNode.put("error", "No dead-letter journal for dataset " + dataset);
+            BackupUtils.processResponse(response, resultNode);
+            return null;
+        }
+        return journal;
+    }
+}
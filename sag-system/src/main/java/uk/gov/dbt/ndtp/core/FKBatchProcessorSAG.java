@@ -0,0 +1,523 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import uk.gov.dbt.ndtp.otel.IngestMetrics;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.fuseki.kafka.FKBatchProcessor;
+import org.apache.jena.kafka.FusekiKafka;
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.kafka.common.DataState;
+import org.apache.jena.sparql.core.Transactional;
+import org.apache.jena.system.Txn;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * {@link FKBatchProcessor} for SAG.
+ * <p>
+ * Before the batch is executed (in a single transaction, by {@link FKBatchProcessor}),
+ * the {@link FKProcessorSAG} is given the whole batch so that it can start
+ * parsing messages ahead of applying them.
+ * <p>
+ * If a commit latency or byte budget is configured, a batch is split into
+ * sub-batches, each in its own transaction, and the offset is recorded after
+ * each sub-batch commits.
+ * <p>
+ * If prefetching is configured, the Kafka polling thread only fetches records;
+ * they are passed through a bounded queue to a single applier thread which
+ * processes them, in order, and records the offset. The next records are then
+ * fetched while the current ones are being applied. The applier is stopped by
+ * {@link #stop}, between batches; records still queued are not applied and
+ * are fetched again on restart. If the applier dies, the polling thread fails
+ * with a {@link JenaKafkaException} rather than waiting for it.
+ * <p>
+ * If bulk loading is configured, a batch is loaded with the TDB2 parallel
+ * loader when the consumer lag, or the size of a message, passes a threshold,
+ * and the batch is all RDF data for a TDB2 database. Otherwise batches are
+ * processed message by message.
+ * <p>
+ * If a {@link WriteScheduler} is given, each batch, or sub-batch, waits for
+ * its topic's turn to write to the dataset, shared with the other topics
+ * feeding the same dataset.
+ * <p>
+ * If Request-Ids are checked, messages already applied are dropped from a batch
+ * before it is processed.
+ * <p>
+ * Messages recorded as dead letters can be replayed with {@link #replay}; this
+ * is serialized with the processing of batches from Kafka.
+ * <p>
+ * After each poll, the end offsets of the topic and the offset applied are
+ * recorded; the connector is ready (see {@link #isReady}) once the offset
+ * applied has come within {@link #READY_LAG} of the end of the topic.
+ */
+public class FKBatchProcessorSAG extends FKBatchProcessor {
+
+    /**
+     * Configuration: target time, in milliseconds, for one write transaction of
+     * the Kafka connector. 0 (the default) means no limit.
+     */
+    public static final String COMMIT_LATENCY_MS = "KAFKA_COMMIT_LATENCY_MS";
+
+    /**
+     * Configuration: maximum number of message bytes applied in one write
+     * transaction of the Kafka connector. 0 (the default) means no limit.
+     */
+    public static final String COMMIT_BYTES = "KAFKA_COMMIT_BYTES";
+
+    /**
+     * Configuration: the number of polled batches of records held, waiting to be
+     * applied, while the current batch is applied. 0 (the default) means no
+     * prefetching: the Kafka polling thread applies each batch before polling again.
+     */
+    public static final String PREFETCH_BATCHES = "KAFKA_PREFETCH_BATCHES";
+
+    /**
+     * Configuration: consumer lag, in records, at or above which batches are bulk
+     * loaded. 0 (the default) means lag does not trigger bulk loading.
+     */
+    public static final String BULK_LOAD_LAG = "KAFKA_BULK_LOAD_LAG";
+
+    /**
+     * Configuration: message size, in bytes, at or above which the batch containing
+     * the message is bulk loaded. 0 (the default) means size does not trigger bulk loading.
+     */
+    public static final String BULK_LOAD_MESSAGE_BYTES = "KAFKA_BULK_LOAD_MESSAGE_BYTES";
+
+    /**
+     * Configuration: number of messages a connector may be behind the end of its
+     * topic for the server to be ready. 0 (the default) means fully caught up.
+     */
+    public static final String READY_LAG = "KAFKA_READY_LAG";
+
+    // Size of the first sub-batch when only a latency is set and there is no
+    // measurement of the ingest rate yet.
+    private static final long INITIAL_SUB_BATCH_BYTES = 1024 * 1024;
+    // How long the polling and applier threads wait on the queue before checking
+    // whether the other side has stopped.
+    private static final long QUEUE_WAIT_MS = 500;
+    private static final long STOP_WAIT_MS = 30_000;
+
+    private static final AtomicInteger applierCounter = new AtomicInteger(0);
+
+    private final Transactional transactional;
+    private final FKProcessorSAG processor;
+    private final LongConsumer offsetRecorder;
+    private final WriteScheduler scheduler;
+    private final long commitLatencyNanos;
+    private final long commitBytes;
+    // Measured ingest rate, bytes per nanosecond; negative when not known.
+    private double bytesPerNano = -1;
+
+    private final int prefetchBatches;
+    // Created on the first call of receiver when prefetching.
+    private BlockingQueue<ConsumerRecords<String, RequestFK>> prefetched = null;
+    private volatile Thread applier = null;
+    private volatile boolean stopping = false;
+    // Why the applier stopped, if it failed.
+    private volatile Throwable applierFailure = null;
+    // Offset recorded by the applier, read by the polling thread.
+    private final AtomicLong appliedOffset = new AtomicLong(-1);
+
+    private final long bulkLoadLag;
+    private final long bulkLoadMessageBytes;
+    // Consumer lag after the most recent poll. Set by the polling thread.
+    private volatile long consumerLag = 0;
+    private boolean bulkLoading = false;
+
+    private final long readyLag;
+    // Set once the applied offset has come within readyLag of the end of the topic.
+    private volatile boolean ready = false;
+
+    public FKBatchProcessorSAG(Transactional transactional, FKProcessorSAG processor) {
+        this(transactional, processor, null);
+    }
+
+    /**
+     * @param offsetRecorder Called with the offset after each sub-batch commits, except the last. May be null.
+     */
+    public FKBatchProcessorSAG(Transactional transactional, FKProcessorSAG processor, LongConsumer offsetRecorder) {
+        this(transactional, processor, offsetRecorder, null);
+    }
+
+    /**
+     * @param offsetRecorder Called with the offset after each sub-batch commits, except the last. May be null.
+     * @param scheduler      Shares the writer of the dataset between topics. May be null.
+     */
+    public FKBatchProcessorSAG(Transactional transactional, FKProcessorSAG processor, LongConsumer offsetRecorder,
+                               WriteScheduler scheduler) {
+        super(transactional, processor);
+        this.transactional = transactional;
+        this.processor = processor;
+        this.offsetRecorder = offsetRecorder;
+        this.scheduler = scheduler;
+        this.commitLatencyNanos = 1_000_000L * Configurator.get(COMMIT_LATENCY_MS, Long::parseLong, 0L);
+        this.commitBytes = Configurator.get(COMMIT_BYTES, Long::parseLong, 0L);
+        this.prefetchBatches = Configurator.get(PREFETCH_BATCHES, Integer::parseInt, 0);
+        this.bulkLoadLag = Configurator.get(BULK_LOAD_LAG, Long::parseLong, 0L);
+        this.bulkLoadMessageBytes = Configurator.get(BULK_LOAD_MESSAGE_BYTES, Long::parseLong, 0L);
+        this.readyLag = Configurator.get(READY_LAG, Long::parseLong, 0L);
+    }
+
+    @Override
+    public boolean receiver(Consumer<String, RequestFK> consumer, DataState dataState, Duration pollingDuration) {
+        if ( prefetchBatches <= 0 ) {
+            boolean result = super.receiver(consumer, dataState, pollingDuration);
+            updateOffsets(consumer, dataState);
+            return result;
+        }
+        if ( stopping )
+            return false;
+        if ( applier == null )
+            startApplier(dataState);
+        checkApplier();
+        ConsumerRecords<String, RequestFK> cRecords = consumer.poll(pollingDuration);
+        updateOffsets(consumer, dataState);
+        if ( cRecords.isEmpty() )
+            return false;
+        try {
+            // Waits when the buffer is full so the consumer does not run ahead,
+            // but not for an applier that has gone.
+            while ( ! prefetched.offer(cRecords, QUEUE_WAIT_MS, TimeUnit.MILLISECONDS) ) {
+                checkApplier();
+                if ( stopping )
+                    return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void startApplier(DataState dataState) {
+        prefetched = new ArrayBlockingQueue<>(prefetchBatches);
+        appliedOffset.set(dataState.getLastOffset());
+        applier = new Thread(() -> applyLoop(dataState), "KafkaApply-" + applierCounter.incrementAndGet());
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    private void checkApplier() {
+        Throwable failure = applierFailure;
+        if ( failure != null )
+            throw new JenaKafkaException("Kafka applier thread failed: " + failure.getMessage(), failure);
+    }
+
+    /**
+     * Apply prefetched records, in the order they were polled, and record the
+     * offset after each batch. Everything waiting is applied as one batch.
+     * A batch that fails is logged and passed over, as when not prefetching.
+     * Anything else ends the applier, and is passed to the polling thread.
+     */
+    private void applyLoop(DataState dataState) {
+        List<ConsumerRecords<String, RequestFK>> batch = new ArrayList<>();
+        try {
+            while ( ! stopping ) {
+                ConsumerRecords<String, RequestFK> cRecords = prefetched.poll(QUEUE_WAIT_MS, TimeUnit.MILLISECONDS);
+                if ( cRecords == null )
+                    continue;
+                batch.add(cRecords);
+                prefetched.drainTo(batch);
+                String topic = batch.get(0).iterator().next().topic();
+                long lastOffsetState = dataState.getLastOffset();
+                try {
+                    long newOffset = processBatch(topic, lastOffsetState, batch);
+                    if ( newOffset != lastOffsetState ) {
+                        dataState.setLastOffset(newOffset);
+                        appliedOffset.set(newOffset);
+                    }
+                } catch (RuntimeException ex) {
+                    FmtLog.error(FusekiKafka.LOG, ex, "[%s] Batch failed: %s", topic, ex.getMessage());
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            // Stopped.
+        } catch (Throwable th) {
+            FmtLog.error(FusekiKafka.LOG, th, "Kafka applier thread failed: %s", th.getMessage());
+            applierFailure = th;
+        }
+    }
+
+    /**
+     * Stop the applier thread, if prefetching, after the batch it is applying,
+     * and wait for it. Records polled but not applied are not recorded in the
+     * offset, so they are fetched again when the server restarts.
+     * Then release the threads of the processor parsing messages ahead.
+     */
+    public void stop() {
+        stopping = true;
+        Thread thread = applier;
+        if ( thread != null ) {
+            try {
+                thread.join(STOP_WAIT_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if ( thread.isAlive() )
+                FmtLog.warn(FusekiKafka.LOG, "Kafka applier thread %s has not stopped", thread.getName());
+        }
+        processor.close();
+    }
+
+    /**
+     * Record the consumer lag and the end offsets, from the consumer's last fetch,
+     * and the offset applied, for bulk loading, readiness and the metrics.
+     */
+    private void updateOffsets(Consumer<String, RequestFK> consumer, DataState dataState) {
+        long lag = 0;
+        Map<String, Long> topicLags = new HashMap<>();
+        Map<String, Long> topicEnds = new HashMap<>();
+        for ( TopicPartition partition : consumer.assignment() ) {
+            OptionalLong partitionLag = consumer.currentLag(partition);
+            // Not known until the partition has been fetched.
+            if ( partitionLag.isEmpty() )
+                continue;
+            lag += partitionLag.getAsLong();
+            topicLags.merge(partition.topic(), partitionLag.getAsLong(), Long::sum);
+            topicEnds.merge(partition.topic(), consumer.position(partition) + partitionLag.getAsLong(), Math::max);
+        }
+        consumerLag = lag;
+        // When prefetching, the applier thread records the offset.
+        long applied = ( applier == null ) ? dataState.getLastOffset() : appliedOffset.get();
+        IngestMetrics metrics = processor.metrics();
+        topicLags.forEach(metrics::consumerLag);
+        topicEnds.forEach((topic, end) -> metrics.offsets(topic, end, applied));
+        if ( ! ready && ! topicEnds.isEmpty() ) {
+            long behind = topicEnds.values().stream().mapToLong(end -> end - applied - 1).max().orElse(0);
+            if ( behind <= readyLag ) {
+                FmtLog.info(FusekiKafka.LOG, "%s Caught up: offset %d", topicEnds.keySet(), applied);
+                ready = true;
+            }
+        }
+    }
+
+    /**
+     * Whether the connector has caught up with its topic, to within
+     * {@link #READY_LAG} messages, since the server started.
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public synchronized long processBatch(String topic, long lastOffsetState, List<ConsumerRecords<String, RequestFK>> batch) {
+        List<ConsumerRecord<String, RequestFK>> records = new ArrayList<>();
+        batch.forEach(cRecords -> cRecords.forEach(records::add));
+        if ( records.isEmpty() )
+            return lastOffsetState;
+        long lastOffset = records.get(records.size()-1).offset();
+        if ( processor.hasRequestIds() ) {
+            int size = records.size();
+            records.removeIf(cRec -> processor.isDuplicate(cRec.value()));
+            if ( records.size() != size ) {
+                FmtLog.info(FusekiKafka.LOG, "[%s] Skipped %d duplicate messages", topic, size - records.size());
+                if ( records.isEmpty() ) {
+                    processor.batchFinished(true);
+                    return lastOffset;
+                }
+                batch = List.of(asConsumerRecords(records));
+            }
+        }
+        boolean committed = false;
+        try {
+            long start = System.nanoTime();
+            long offset = processRecords(topic, lastOffsetState, batch, records);
+            committed = true;
+            processor.metrics().batch(topic, records.size(), System.nanoTime() - start);
+            // Skipped messages at the end of the batch are done.
+            return ( offset == records.get(records.size()-1).offset() ) ? lastOffset : offset;
+        } finally {
+            processor.batchFinished(committed);
+        }
+    }
+
+    private long processRecords(String topic, long lastOffsetState, List<ConsumerRecords<String, RequestFK>> batch,
+                                List<ConsumerRecord<String, RequestFK>> records) {
+        List<RequestFK> requests = records.stream().map(ConsumerRecord::value).toList();
+        if ( processor.hasDeadLetters() ) {
+            Map<RequestFK, Long> offsets = new IdentityHashMap<>();
+            records.forEach(cRec -> offsets.put(cRec.value(), cRec.offset()));
+            processor.batchOffsets(offsets);
+        }
+        try {
+            if ( useBulkLoad(topic, requests) ) {
+                return scheduled(topic, byteCount(records), ()->{
+                    processor.bulkLoad(topic, requests);
+                    return records.get(records.size()-1).offset();
+                });
+            }
+            processor.prepareBatch(requests);
+            if ( commitLatencyNanos <= 0 && commitBytes <= 0 )
+                return scheduled(topic, byteCount(records), ()->super.processBatch(topic, lastOffsetState, batch));
+            return processSubBatches(topic, lastOffsetState, records);
+        } finally {
+            processor.releaseBatch();
+        }
+    }
+
+    private long processSubBatches(String topic, long lastOffsetState, List<ConsumerRecord<String, RequestFK>> records) {
+        long offset = lastOffsetState;
+        int idx = 0;
+        while ( idx < records.size() ) {
+            long budget = subBatchBytes();
+            int start = idx;
+            long bytes = 0;
+            // At least one message per sub-batch.
+            do {
+                bytes += ClaimCheck.byteCount(records.get(idx).value());
+                idx++;
+            } while ( idx < records.size() && bytes < budget );
+
+            List<ConsumerRecords<String, RequestFK>> subBatch = List.of(asConsumerRecords(records.subList(start, idx)));
+            long subBatchOffset = offset;
+            // Time the write, not any wait for the writer.
+            long[] nanos = { 0 };
+            offset = scheduled(topic, bytes, ()->{
+                long startTime = System.nanoTime();
+                long newOffset = super.processBatch(topic, subBatchOffset, subBatch);
+                nanos[0] = System.nanoTime() - startTime;
+                return newOffset;
+            });
+            recordRate(bytes, nanos[0]);
+            processor.subBatchCommitted(records.subList(start, idx).stream().map(ConsumerRecord::value).toList());
+
+            if ( idx < records.size() ) {
+                FmtLog.debug(FusekiKafka.LOG, "[%s] Sub-batch committed: %d messages, %d bytes, offset %d",
+                             topic, idx - start, bytes, offset);
+                if ( offsetRecorder != null )
+                    offsetRecorder.accept(offset);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Apply messages again, outside the Kafka polling loop, as one batch in one
+     * transaction. Messages that fail again are recorded as new dead letters.
+     * The connector offset is not changed.
+     *
+     * @param offsets The original Kafka offset of each request.
+     */
+    public synchronized void replay(List<RequestFK> requests, Map<RequestFK, Long> offsets) {
+        if ( requests.isEmpty() )
+            return;
+        if ( processor.hasDeadLetters() )
+            processor.batchOffsets(offsets);
+        boolean committed = false;
+        try {
+            Txn.executeWrite(transactional, ()->{
+                processor.startBatch(requests.size(), -1);
+                requests.forEach(processor::process);
+                processor.finishBatch(requests.size(), -1, -1);
+            });
+            committed = true;
+        } finally {
+            processor.batchFinished(committed);
+            processor.releaseBatch();
+        }
+    }
+
+    /** Write when it is the topic's turn, if there is a scheduler. */
+    private long scheduled(String topic, long bytes, Supplier<Long> action) {
+        if ( scheduler == null )
+            return action.get();
+        return scheduler.execute(topic, bytes, action);
+    }
+
+    private static long byteCount(List<ConsumerRecord<String, RequestFK>> records) {
+        long bytes = 0;
+        for ( ConsumerRecord<String, RequestFK> cRec : records )
+            bytes += ClaimCheck.byteCount(cRec.value());
+        return bytes;
+    }
+
+    /** Decide whether to bulk load a batch, logging when the mode changes. */
+    private boolean useBulkLoad(String topic, List<RequestFK> requests) {
+        if ( requests.isEmpty() || ( bulkLoadLag <= 0 && bulkLoadMessageBytes <= 0 ) )
+            return false;
+        long lag = consumerLag;
+        boolean trigger = ( bulkLoadLag > 0 && lag >= bulkLoadLag )
+                || ( bulkLoadMessageBytes > 0 && requests.stream().anyMatch(r -> ClaimCheck.byteCount(r) >= bulkLoadMessageBytes) );
+        boolean bulk = trigger && processor.canBulkLoad(requests);
+        if ( bulk != bulkLoading ) {
+            if ( bulk )
+                FmtLog.info(FusekiKafka.LOG, "[%s] Bulk loading (lag %d)", topic, lag);
+            else
+                FmtLog.info(FusekiKafka.LOG, "[%s] Message by message processing (lag %d)", topic, lag);
+            bulkLoading = bulk;
+        }
+        return bulk;
+    }
+
+    /** Byte budget for the next sub-batch. */
+    private long subBatchBytes() {
+        long budget = (commitBytes > 0) ? commitBytes : Long.MAX_VALUE;
+        if ( commitLatencyNanos > 0 ) {
+            long latencyBytes = (bytesPerNano < 0)
+                    ? INITIAL_SUB_BATCH_BYTES
+                    : (long)(commitLatencyNanos * bytesPerNano);
+            budget = Math.min(budget, latencyBytes);
+        }
+        return budget;
+    }
+
+    private void recordRate(long bytes, long nanos) {
+        if ( nanos <= 0 || bytes <= 0 )
+            return;
+        double rate = (double)bytes / nanos;
+        // Smooth over sub-batches.
+        bytesPerNano = (bytesPerNano < 0) ? rate : 0.7 * bytesPerNano + 0.3 * rate;
+    }
+
+    private static ConsumerRecords<String, RequestFK> asConsumerRecords(List<ConsumerRecord<String, RequestFK>> records) {
+        Map<TopicPartition, List<ConsumerRecord<String, RequestFK>>> map = new LinkedHashMap<>();
+        for ( ConsumerRecord<String, RequestFK> cRec : records )
+            map.computeIfAbsent(new TopicPartition(cRec.topic(), cRec.partition()), tp -> new ArrayList<>()).add(cRec);
+        return new ConsumerRecords<>(map);
+    }
+}
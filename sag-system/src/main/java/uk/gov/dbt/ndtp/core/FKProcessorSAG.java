@@ -29,20 +29,24 @@ import static java.lang.String.format;
 
 import java.io.InputStream;
 import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 
-import uk.gov.dbt.ndtp.jena.abac.AE;
 import uk.gov.dbt.ndtp.jena.abac.SysABAC;
-import uk.gov.dbt.ndtp.jena.abac.attributes.AttributeExpr;
 import uk.gov.dbt.ndtp.jena.abac.lib.AuthzException;
 import uk.gov.dbt.ndtp.jena.abac.lib.DatasetGraphABAC;
 import uk.gov.dbt.ndtp.jena.abac.lib.StreamSplitter;
 import uk.gov.dbt.ndtp.jena.abac.lib.VocabAuthz;
-import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
+import uk.gov.dbt.ndtp.otel.IngestMetrics;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
 import org.apache.jena.atlas.RuntimeIOException;
 import org.apache.jena.atlas.io.IO;
 import org.apache.jena.atlas.lib.Timer;
+import org.apache.jena.atlas.web.ContentType;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.fuseki.kafka.FKBatchProcessor;
 import org.apache.jena.fuseki.kafka.FKProcessorBaseAction;
@@ -62,11 +66,16 @@ import org.apache.jena.rdfpatch.text.RDFPatchReaderText;
 import org.apache.jena.riot.*;
 import org.apache.jena.riot.lang.StreamRDFCounting;
 import org.apache.jena.riot.system.*;
+import org.apache.jena.shared.PrefixMapping;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.core.Transactional;
-import org.apache.jena.sparql.graph.GraphFactory;
 import org.apache.jena.system.Txn;
+import org.apache.jena.system.buffering.BufferingDatasetGraph;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.apache.jena.tdb2.sys.TDBInternal;
 import org.slf4j.Logger;
 
 /**
@@ -75,19 +84,116 @@ import org.slf4j.Logger;
  * <p>
  * The transactional in {@link FKBatchProcessor} is used if setup
  * by {@link FMod_FusekiKafkaSAG#makeFKBatchProcessor}.
+ * <p>
+ * With {@link #ENABLE_MESSAGE_ISOLATION} set, a message inside a batch is applied to
+ * the batch transaction only if it is processed without error. The changes for the
+ * message are buffered and a failed message is dropped, leaving nothing of it in
+ * the database.
+ * <p>
+ * If a {@link DeadLetterJournal} is provided, messages that fail are recorded
+ * in it, with the error and their offset, so they can be inspected and replayed.
+ * <p>
+ * With {@link #PATCH_COALESCE} set, the RDF Patch messages of a batch are
+ * collected and only their net effect is applied: a triple added then deleted
+ * is not written at all. The collected changes are applied before the next
+ * message that is not a patch, and at the end of the batch.
+ * <p>
+ * If a {@link RequestIdFilter} is provided, {@link FKBatchProcessorSAG} drops
+ * messages whose {@code Request-Id} has already been applied, before they are parsed.
+ * <p>
+ * An RDF Patch sent in chunks is collected by {@link PatchChunks} and applied,
+ * as one message, when its last chunk arrives.
  */
 public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcessor*/ {
 
     private static Logger LOG = FusekiKafka.LOG;
 
+    /**
+     * Configuration flag to apply each message in a batch directly to the batch
+     * transaction, discarding the changes of any message that fails.
+     */
+    public static final String ENABLE_MESSAGE_ISOLATION = "ENABLE_KAFKA_MESSAGE_ISOLATION";
+
+    /**
+     * Configuration: the number of threads parsing messages of a batch ahead of
+     * them being applied. 0 (the default) means messages are parsed as they are
+     * applied, on the Kafka polling thread.
+     */
+    public static final String PARSE_THREADS = "KAFKA_PARSE_THREADS";
+
+    /**
+     * Configuration: the number of bytes of message bodies parsed ahead of them
+     * being applied, when {@link #PARSE_THREADS} is set. A larger message is
+     * parsed as it is applied.
+     */
+    public static final String PARSE_AHEAD_BYTES = "KAFKA_PARSE_AHEAD_BYTES";
+
+    /**
+     * Configuration: the number of label assignments collected during a bulk load
+     * before they are written to the labels store.
+     */
+    public static final String LABELS_BATCH_SIZE = "KAFKA_LABELS_BATCH_SIZE";
+
+    /**
+     * Configuration: the number of triples of the labels graph of a TriG or N-Quads
+     * message held in memory. Beyond this, the labels graph of the message is moved
+     * to a temporary database on disk until the labels are written. 0 means no limit.
+     */
+    public static final String LABELS_SPILL_THRESHOLD = "KAFKA_LABELS_SPILL_THRESHOLD";
+
+    /**
+     * Configuration flag to apply only the net effect of consecutive RDF Patch
+     * messages in a batch. Each patch message is then applied in full or not at all.
+     */
+    public static final String PATCH_COALESCE = "KAFKA_PATCH_COALESCE";
+
     private final DatasetGraph dsg;
     private final DatasetGraphABAC dsgz;
+    private final boolean messageIsolation;
+    private final ParsePipeline parsePipeline;
+    private final int labelsBatchSize;
+    private final long labelsSpillThreshold;
+    private final boolean patchCoalesce;
+    private final DeadLetterJournal deadLetters;
+    private final RequestIdFilter requestIds;
+    private final PatchChunks patchChunks;
+    private final IngestMetrics metrics;
 
     public FKProcessorSAG(DatasetGraph dsg, String requestURI, FusekiServer server) {
+        this(dsg, requestURI, server, null, null);
+    }
+
+    /**
+     * @param deadLetters Where failed messages are recorded. May be null.
+     * @param requestIds  Request-Ids of messages already applied. May be null.
+     */
+    public FKProcessorSAG(DatasetGraph dsg, String requestURI, FusekiServer server,
+                          DeadLetterJournal deadLetters, RequestIdFilter requestIds) {
+        this(dsg, requestURI, server, deadLetters, requestIds, PatchChunks.create(null));
+    }
+
+    /**
+     * @param deadLetters Where failed messages are recorded. May be null.
+     * @param requestIds  Request-Ids of messages already applied. May be null.
+     * @param patchChunks Where the chunks of RDF Patches are collected.
+     */
+    public FKProcessorSAG(DatasetGraph dsg, String requestURI, FusekiServer server,
+                          DeadLetterJournal deadLetters, RequestIdFilter requestIds, PatchChunks patchChunks) {
         this.dsg = Objects.requireNonNull(dsg);
         this.dsgz = (dsg instanceof DatasetGraphABAC)
                 ? (DatasetGraphABAC)dsg
                 : null;
+        this.messageIsolation = Configurator.get(ENABLE_MESSAGE_ISOLATION, Boolean::parseBoolean, false);
+        int parseThreads = Configurator.get(PARSE_THREADS, Integer::parseInt, 0);
+        long parseAheadBytes = Configurator.get(PARSE_AHEAD_BYTES, Long::parseLong, 64L * 1024 * 1024);
+        this.parsePipeline = (parseThreads > 0) ? new ParsePipeline(parseThreads, parseAheadBytes) : null;
+        this.labelsBatchSize = Configurator.get(LABELS_BATCH_SIZE, Integer::parseInt, 100_000);
+        this.labelsSpillThreshold = Configurator.get(LABELS_SPILL_THRESHOLD, Long::parseLong, 250_000L);
+        this.patchCoalesce = Configurator.get(PATCH_COALESCE, Boolean::parseBoolean, false);
+        this.deadLetters = deadLetters;
+        this.requestIds = requestIds;
+        this.patchChunks = Objects.requireNonNull(patchChunks);
+        this.metrics = new IngestMetrics(requestURI);
         // Not currently.
 //        this.requestURI = requestURI;
 //        this.serverContext = server.getServletContext();
@@ -100,15 +206,33 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
     // order matters in the general case.
 
     private boolean inBatch = false;
+    // Net changes of the RDF Patch messages since the last message that was not a patch,
+    // and their labels. Only used with PATCH_COALESCE.
+    private BufferingDatasetGraph patchBuffer = null;
+    private final PendingLabels patchLabels = new PendingLabels();
+    // Kafka offsets of the requests of the current batch, when there is a dead-letter journal.
+    private final Map<RequestFK, Long> batchOffsets = new IdentityHashMap<>();
+    // Counts for the metrics of the current message.
+    private long messageTriples = 0;
+    private long messageQuads = 0;
+    private long messagePatchChanges = 0;
+    // Number of messages that have failed, to tell if one message failed.
+    private long failures = 0;
 
     @Override
     public void startBatch(int batchSize, long startOffset) {
         //Transaction is best controlled by the batch processor.
         inBatch = true;
+        patchBuffer = null;
+        patchLabels.clear();
     }
 
     @Override
     public void finishBatch(int processedCount, long finishOffset, long startOffset) {
+        // Apply the coalesced patches of the batch, and write their labels. This
+        // is a no-op transaction wrapper when called inside the batch transaction.
+        if ( patchBuffer != null )
+            Txn.executeWrite(dsg, ()->flushPatches());
         inBatch = false;
     }
 
@@ -116,31 +240,274 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
     public ResponseFK process(RequestFK request) {
         if ( ! inBatch )
             FmtLog.warn(LOG, "[%s] Not in a batch of requests", request.getTopic());
-        return super.process(request);
+        messageTriples = 0;
+        messageQuads = 0;
+        messagePatchChanges = 0;
+        long start = System.nanoTime();
+        try {
+            return super.process(request);
+        } finally {
+            metrics.message(request, ClaimCheck.byteCount(request), System.nanoTime() - start,
+                            messageTriples, messageQuads, messagePatchChanges);
+        }
+    }
+
+    /** The ingest metrics of the dataset. */
+    IngestMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * The requests of the next batch, in offset order. If parsing ahead is
+     * enabled, the messages start being parsed now.
+     * Called by {@link FKBatchProcessorSAG} before the batch is executed.
+     */
+    void prepareBatch(List<RequestFK> requests) {
+        if ( parsePipeline != null )
+            parsePipeline.start(requests);
+    }
+
+    /** Release the threads parsing messages ahead. Called when the server stops. */
+    void close() {
+        if ( parsePipeline != null )
+            parsePipeline.shutdown();
+    }
+
+    /** Whether failed messages are recorded, in which case the offsets of a batch are needed. */
+    boolean hasDeadLetters() {
+        return deadLetters != null;
+    }
+
+    /** The Kafka offsets of the requests of the next batch, for recording failed messages. */
+    void batchOffsets(Map<RequestFK, Long> offsets) {
+        batchOffsets.putAll(offsets);
+    }
+
+    /** End of the batch; release any parsed messages. */
+    void releaseBatch() {
+        if ( parsePipeline != null )
+            parsePipeline.finish();
+        batchOffsets.clear();
+    }
+
+    /** Whether messages are checked for a {@code Request-Id} already seen. */
+    boolean hasRequestIds() {
+        return requestIds != null;
+    }
+
+    /**
+     * Whether the message has a {@code Request-Id} that has been seen before.
+     * Otherwise, the Request-Id is remembered when the batch commits.
+     */
+    boolean isDuplicate(RequestFK request) {
+        if ( requestIds == null )
+            return false;
+        String requestId = request.getHeaders().get(IANodeKafka.TF_REQUEST_ID);
+        if ( requestId == null )
+            return false;
+        if ( ! requestIds.isDuplicate(requestId) )
+            return false;
+        FmtLog.debug(LOG, "[%s] Duplicate Request-Id - skipped", requestId);
+        return true;
+    }
+
+    /**
+     * The batch has committed, or failed; update the Request-Ids seen and
+     * release the chunks of the patches applied.
+     */
+    void batchFinished(boolean committed) {
+        patchChunks.finished(committed);
+        if ( requestIds == null )
+            return;
+        if ( committed )
+            requestIds.commit();
+        else
+            requestIds.abort();
+    }
+
+    /**
+     * Part of the batch, these requests, has committed in its own transaction;
+     * their Request-Ids are now seen and the chunks of the patches applied are
+     * released. Whatever happens to the rest of the batch, these are not undone.
+     */
+    void subBatchCommitted(List<RequestFK> requests) {
+        patchChunks.finished(true);
+        if ( requestIds == null )
+            return;
+        List<String> committed = new ArrayList<>(requests.size());
+        for ( RequestFK request : requests ) {
+            String requestId = request.getHeaders().get(IANodeKafka.TF_REQUEST_ID);
+            if ( requestId != null )
+                committed.add(requestId);
+        }
+        requestIds.commit(committed);
+    }
+
+    /** Record a failed message, if there is a dead-letter journal, and count it. */
+    private void deadLetter(String id, RequestFK request, String error) {
+        failures++;
+        metrics.failure(request);
+        if ( deadLetters == null )
+            return;
+        long offset = batchOffsets.getOrDefault(request, -1L);
+        deadLetters.record(id, request, offset, error);
+    }
+
+    private PreparedMessage takePrepared(RequestFK request) {
+        return ( parsePipeline == null ) ? null : parsePipeline.take(request);
+    }
+
+    /**
+     * Where the changes for one message are sent: the storage dataset (or a buffer
+     * over it) and the label assignments to be written to the labels store.
+     * Parse errors that are logged, rather than thrown, mark the message as failed.
+     */
+    private static class MessageTarget {
+        final DatasetGraph data;
+        final PendingLabels labels = new PendingLabels();
+        // The message, already parsed, or null.
+        final PreparedMessage prepared;
+        boolean failed = false;
+        String error = null;
+
+        MessageTarget(DatasetGraph data, PreparedMessage prepared) {
+            this.data = data;
+            this.prepared = prepared;
+        }
+
+        void fail(String error) {
+            this.failed = true;
+            this.error = error;
+        }
+    }
+
+    /** The dataset where triples are stored; for ABAC, the base dataset, not the labelled view. */
+    private DatasetGraph storage() {
+        return (dsgz != null) ? dsgz.getBase() : dsg;
+    }
+
+    /**
+     * Write label assignments to the labels store. This must be called inside the
+     * write transaction, after the data of the labels has been applied.
+     */
+    private void flushLabels(PendingLabels labels) {
+        if ( dsgz != null ) {
+            metrics.labelWrites(labels.size());
+            labels.flush(dsgz.labelsStore());
+        } else
+            labels.clear();
     }
 
     /**
      * Execute code for a single {@link RequestFK}, adding a transaction if necessary.
+     * <p>
+     * If message isolation is enabled and the batch transaction is active, the
+     * message is applied via {@link #executeIsolated}.
      */
-    private void executeWrite(String id, RequestFK request, Transactional transactional, Runnable action) {
+    private void executeWrite(String id, RequestFK request, Transactional transactional, Consumer<MessageTarget> action) {
+        executeWrite(id, request, transactional, messageIsolation, action);
+    }
+
+    private void executeWrite(String id, RequestFK request, Transactional transactional, boolean isolate,
+                              Consumer<MessageTarget> action) {
+        PreparedMessage prepared = takePrepared(request);
+        // Changes from earlier patch messages come first.
+        if ( patchBuffer != null )
+            flushPatches();
+        if ( isolate && inBatch && transactional.isInTransaction() ) {
+            executeIsolated(id, request, prepared, action, storage(), false);
+            return;
+        }
         Txn.executeWrite(transactional, ()->{
+            MessageTarget target = new MessageTarget(storage(), prepared);
             try {
-                action.run();
+                action.accept(target);
+                if ( target.failed )
+                    deadLetter(id, request, target.error);
             } catch (AuthzException ex) {
                 FmtLog.error(LOG, "[%s] AuthzException: %s", id, ex.getMessage());
+                deadLetter(id, request, ex.getMessage());
                 return;
             } catch (RuntimeException ex) {
                 super.actionFailed(ex);
                 FmtLog.error(LOG, "[%s] Failed: %s", id, ex.getMessage());
+                deadLetter(id, request, ex.getMessage());
+            } finally {
+                // Labels for the triples that have been added.
+                flushLabels(target.labels);
             }
         });
    }
 
+    /**
+     * Execute code for a single {@link RequestFK} within the current (batch)
+     * transaction. The changes are collected in a buffer and only passed on to
+     * {@code base} if the whole message is processed successfully.
+     * If {@code coalesced}, the labels are kept with the coalesced patch changes.
+     */
+    private void executeIsolated(String id, RequestFK request, PreparedMessage prepared, Consumer<MessageTarget> action,
+                                 DatasetGraph base, boolean coalesced) {
+        BufferingDatasetGraph buffer = new BufferingDatasetGraph(base);
+        MessageTarget target = new MessageTarget(buffer, prepared);
+        try {
+            action.accept(target);
+        } catch (AuthzException ex) {
+            FmtLog.error(LOG, "[%s] AuthzException: %s", id, ex.getMessage());
+            target.labels.clear();
+            deadLetter(id, request, ex.getMessage());
+            return;
+        } catch (RuntimeException ex) {
+            super.actionFailed(ex);
+            FmtLog.error(LOG, "[%s] Failed: %s", id, ex.getMessage());
+            target.labels.clear();
+            deadLetter(id, request, ex.getMessage());
+            return;
+        }
+        if ( target.failed ) {
+            FmtLog.warn(LOG, "[%s] Message discarded", id);
+            target.labels.clear();
+            deadLetter(id, request, target.error);
+            return;
+        }
+        buffer.flush();
+        if ( coalesced )
+            patchLabels.addAll(target.labels);
+        else
+            flushLabels(target.labels);
+    }
+
+    /** Whether RDF Patch messages are being coalesced. */
+    private boolean coalescing(Transactional transactional) {
+        return patchCoalesce && inBatch && transactional.isInTransaction();
+    }
+
+    /** Add an RDF Patch message to the net changes of the patches of the batch. */
+    private void executeCoalesced(String id, RequestFK request, Consumer<MessageTarget> action) {
+        if ( patchBuffer == null )
+            patchBuffer = new BufferingDatasetGraph(storage());
+        executeIsolated(id, request, takePrepared(request), action, patchBuffer, true);
+    }
+
+    /**
+     * Apply the net changes of the coalesced RDF Patch messages, then pass on the
+     * labels of the triples added that are still in the database.
+     */
+    private void flushPatches() {
+        if ( patchBuffer == null )
+            return;
+        patchBuffer.flush();
+        patchBuffer = null;
+        // In any graph: patches may add quads to named graphs.
+        DatasetGraph storage = storage();
+        patchLabels.retain(triple -> storage.contains(Node.ANY, triple.getSubject(), triple.getPredicate(), triple.getObject()));
+        flushLabels(patchLabels);
+    }
+
     // ---- SPARQL Update request on the Kafka topic.
 
     @Override
     protected void actionSparqlUpdate(String id, RequestFK request, InputStream data) {
-        executeWrite(id, request, dsg, ()->
+        executeWrite(id, request, dsg, target->
             FmtLog.error(LOG, "[%s] SPARQL Update - ignored", id)
             );
     }
@@ -149,33 +516,75 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
 
     @Override
     protected void actionRDFPatch(String id, RequestFK request, InputStream data) {
-        executeWrite(id, request, dsg, ()->{
+        if ( ! PatchChunks.isChunk(request) ) {
+            applyRDFPatch(id, request, data);
+            return;
+        }
+        InputStream patch;
+        try {
+            patch = patchChunks.add(request);
+        } catch (RiotException ex) {
+            FmtLog.error(LOG, "[%s] Bad RDF Patch chunk: %s", id, ex.getMessage());
+            deadLetter(id, request, ex.getMessage());
+            return;
+        }
+        // Not the last chunk.
+        if ( patch == null )
+            return;
+        long failuresBefore = failures;
+        try {
+            applyRDFPatch(id, request, patch, true);
+        } finally {
+            IO.closeSilent(patch);
+        }
+        // The dead letter is the last chunk; the chunk files are kept so that
+        // replaying it applies the whole patch.
+        if ( failures != failuresBefore )
+            patchChunks.failed(request);
+        if ( ! inBatch )
+            patchChunks.finished(true);
+    }
+
+    private void applyRDFPatch(String id, RequestFK request, InputStream data) {
+        applyRDFPatch(id, request, data, false);
+    }
+
+    /**
+     * Apply an RDF Patch. A patch reassembled from chunks ({@code chunked}) may be
+     * larger than memory, so it is applied directly to the dataset, not
+     * through the on-heap buffer of message isolation or patch coalescing.
+     */
+    private void applyRDFPatch(String id, RequestFK request, InputStream data, boolean chunked) {
+        Consumer<MessageTarget> action = target->{
             if ( dsgz != null )
-                actionRDFPatchLabel(id, request, data);
+                actionRDFPatchLabel(id, request, data, target);
             else
-                actionRDFPatchNoLabel(id, request, data);
-        });
+                actionRDFPatchNoLabel(id, request, data, target);
+        };
+        if ( ! chunked && coalescing(dsg) )
+            executeCoalesced(id, request, action);
+        else
+            executeWrite(id, request, dsg, messageIsolation && ! chunked, action);
     }
 
-    private void actionRDFPatchLabel(String id, RequestFK request, InputStream data) {
+    private void actionRDFPatchLabel(String id, RequestFK request, InputStream data, MessageTarget target) {
         String headerSecurityLabel = request.getHeaders().get(SysABAC.H_SECURITY_LABEL);
-        RDFChanges changes = new RDFChangesApplyWithLabels(id, dsgz, headerSecurityLabel);
-        execRDFPatchNoLabel(id, request, data, changes);
+        RDFChanges changes = new RDFChangesApplyWithLabels(id, target, headerSecurityLabel);
+        execRDFPatchNoLabel(id, request, data, changes, target);
     }
 
-    private void actionRDFPatchNoLabel(String id, RequestFK request, InputStream data) {
+    private void actionRDFPatchNoLabel(String id, RequestFK request, InputStream data, MessageTarget target) {
         String headerSecurityLabel = request.getHeaders().get(SysABAC.H_SECURITY_LABEL);
         if ( headerSecurityLabel != null ) {
             String msg = format("[%s] RDF Patch. Header %s encountered. This dataset does not support ABAC security labelling.", id, SysABAC.H_SECURITY_LABEL);
             throw new AuthzException(msg);
         }
-        RDFChanges changes = new RDFChangesApply(dsg);
-        execRDFPatchNoLabel(id, request, data, changes);
+        RDFChanges changes = new RDFChangesApply(target.data);
+        execRDFPatchNoLabel(id, request, data, changes, target);
     }
 
     // Execute an RDF patch.
-    private void execRDFPatchNoLabel(String id, RequestFK request, InputStream data, RDFChanges changes) {
-        RDFPatchReaderText pr = new RDFPatchReaderText(data);
+    private void execRDFPatchNoLabel(String id, RequestFK request, InputStream data, RDFChanges changes, MessageTarget target) {
         // External transaction. Suppress patch recorded TX and TC.
         changes = new RDFChangesExternalTxn(changes) {
             @Override
@@ -185,14 +594,24 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
         };
         RDFChangesCounter counter = new RDFChangesCounter();
         RDFChanges dest = RDFChangesN.multi(changes, counter);
+        InputStream body = null;
         try {
-            pr.apply(dest);
-        } catch (PatchException ex) {
+            if ( target.prepared != null && target.prepared.isPatch() )
+                target.prepared.replayPatch(dest);
+            else {
+                body = messageBody(request, data);
+                new RDFPatchReaderText(body).apply(dest);
+            }
+        } catch (PatchException | RiotException ex) {
             FmtLog.error(LOG, "[%s] Bad RDF Patch: %s", id, ex.getMessage());
+            target.fail(ex.getMessage());
             return;
+        } finally {
+            IO.closeSilent(body);
         }
 
         PatchSummary summary = counter.summary();
+        messagePatchChanges = summary.countAddData + summary.countDeleteData;
         if ( summary.countAddPrefix > 0 || summary.countDeletePrefix > 0 ) {
             FmtLog.debug(LOG, "[%s] RDF Patch: A=%d, D=%d, PA=%d, PD=%d", id,
                                 summary.countAddData, summary.countDeleteData,
@@ -204,14 +623,16 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
 
     private class RDFChangesApplyWithLabels extends RDFChangesApply {
 
-        private final String securityLabel;
+        private final List<String> securityLabel;
         private final String id;
+        private final PendingLabels labels;
         private boolean quadWarningLog = false;
 
-        public RDFChangesApplyWithLabels(String id, DatasetGraphABAC dsgz, String securitylabel) {
-            super(dsgz);
-            this.securityLabel = securitylabel;
+        public RDFChangesApplyWithLabels(String id, MessageTarget target, String securitylabel) {
+            super(target.data);
+            this.securityLabel = parseAttributeList(securitylabel);
             this.id = id;
+            this.labels = target.labels;
         }
 
         @Override
@@ -233,7 +654,7 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
             // Triple.
             if ( securityLabel != null ) {
                 Triple triple = Triple.create(s, p, o);
-                dsgz.labelsStore().add(triple, securityLabel);
+                labels.add(triple, securityLabel);
             }
         }
 
@@ -261,26 +682,130 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
         }
     }
 
+    // ---- Bulk loading.
+
+    /**
+     * Whether a batch of requests can be loaded with the TDB2 bulk loader: the
+     * storage is a TDB2 database and every message is RDF data.
+     */
+    boolean canBulkLoad(List<RequestFK> requests) {
+        if ( ! TDBInternal.isTDB2(storage()) )
+            return false;
+        return requests.stream().allMatch(request -> dataLang(request) != null);
+    }
+
+    /**
+     * Load a batch of RDF data messages with the TDB2 parallel loader.
+     * <p>
+     * This is called outside any transaction. The loader has exclusive use of
+     * the database while it runs, so queries wait until the batch is loaded.
+     * Messages are not isolated: a message that fails to parse is logged, and the
+     * data read before the error remains loaded. The labels are written when the
+     * data has been loaded, or earlier if they reach the labels batch size.
+     */
+    void bulkLoad(String topic, List<RequestFK> requests) {
+        Timer timer = new Timer();
+        timer.startTimer();
+        DataLoader loader = LoaderFactory.parallelLoader(storage(), LoaderOps.nullOutput());
+        PendingLabels labels = new PendingLabels();
+        StreamRDFCounting counting = StreamRDFLib.count(loader.stream());
+        int idx = 0;
+        loader.startBulk();
+        try {
+            for ( RequestFK request : requests ) {
+                String id = Objects.requireNonNullElse(request.getHeaders().get(IANodeKafka.TF_REQUEST_ID), topic+":"+(idx++));
+                long triples = counting.countTriples();
+                long quads = counting.countQuads();
+                long start = System.nanoTime();
+                bulkLoadOne(id, request, counting, labels);
+                metrics.message(request, ClaimCheck.byteCount(request), System.nanoTime() - start,
+                                counting.countTriples() - triples, counting.countQuads() - quads, 0);
+                if ( labels.size() >= labelsBatchSize )
+                    flushLabels(labels);
+            }
+            loader.finishBulk();
+        } catch (RuntimeException ex) {
+            loader.finishException(ex);
+            labels.clear();
+            throw ex;
+        }
+        flushLabels(labels);
+        long millis = timer.endTimer();
+        FmtLog.info(LOG, "[%s] Bulk load: %d messages, %,d triples/quads in %.2fs",
+                    topic, requests.size(), counting.count(), millis/1000.0);
+    }
+
+    private void bulkLoadOne(String id, RequestFK request, StreamRDF loaderStream, PendingLabels labels) {
+        Lang lang = dataLang(request);
+        String headerSecurityLabel = request.getHeaders().get(SysABAC.H_SECURITY_LABEL);
+        StreamRDFLabelled labelled = null;
+        StreamRDF dest;
+        InputStream body = null;
+        try {
+            if ( dsgz != null ) {
+                labelled = new StreamRDFLabelled(loaderStream, labels, parseAttributeList(headerSecurityLabel), labelsSpillThreshold);
+                dest = labelled;
+            } else {
+                if ( headerSecurityLabel != null )
+                    throw new AuthzException(format("[%s] Data received. Header %s encountered. This dataset does not support ABAC security labelling.", id, SysABAC.H_SECURITY_LABEL));
+                dest = new StreamRDF_NoLabels(loaderStream, id);
+            }
+            String base = "kafka://"+request.getTopic()+"/";
+            body = messageBody(request, request.getInputStream());
+            parse(id, dest, body, lang, base);
+        } catch (AuthzException ex) {
+            FmtLog.error(LOG, "[%s] AuthzException: %s", id, ex.getMessage());
+            deadLetter(id, request, ex.getMessage());
+        } catch (RiotException ex) {
+            FmtLog.warn(LOG, "[%s] Failed attempt to load: Content-Length=%d, Content-Type=%s => %s",
+                        id, request.getByteCount(), request.getContentType(), ex.getMessage());
+            deadLetter(id, request, ex.getMessage());
+        } finally {
+            IO.closeSilent(body);
+            if ( labelled != null )
+                labelled.addLabelsGraph();
+        }
+    }
+
+    /**
+     * The RDF syntax of a data message, or null if the message is not RDF data
+     * (for example, an RDF Patch or a SPARQL Update).
+     */
+    static Lang dataLang(RequestFK request) {
+        String contentType = request.getContentType();
+        if ( contentType == null )
+            return null;
+        String ct = ContentType.create(contentType).getContentTypeStr();
+        if ( WebContent.contentTypePatch.equalsIgnoreCase(ct) )
+            return null;
+        Lang lang = RDFLanguages.contentTypeToLang(ct);
+        if ( lang == null || ! RDFParserRegistry.isRegistered(lang) )
+            return null;
+        return lang;
+    }
+
     // ---- Data request on the Kafka topic.
 
     // See also LabelledDataLoader.execute (which is currently tied to HttpAction).
     @Override
     protected void actionData(String id, RequestFK request, Lang lang, InputStream data) {
-        executeWrite(id, request, dsg, ()->{
+        executeWrite(id, request, dsg, target->{
             if ( dsg instanceof DatasetGraphABAC ) {
-                actionDataLabelled(id, request, lang, data);
+                actionDataLabelled(id, request, lang, data, target);
             } else {
-                actionDataNoLabels(id, request, lang, data);
+                actionDataNoLabels(id, request, lang, data, target);
             }
         });
     }
 
     /** The destination is an DatasetGraphABAC. Labelled data - either in the header or as a TriG file */
-    private void actionDataLabelled(String id, RequestFK request, Lang lang, InputStream data) {
+    private void actionDataLabelled(String id, RequestFK request, Lang lang, InputStream data, MessageTarget target) {
         Timer timer = new Timer();
         timer.startTimer();
         String headerSecurityLabel = request.getHeaders().get(SysABAC.H_SECURITY_LABEL);
-        List<String> dataDftLabels = parseAttributeList(headerSecurityLabel);
+        List<String> dataDftLabels = ( target.prepared != null )
+                ? target.prepared.labels()
+                : parseAttributeList(headerSecurityLabel);
         if ( dataDftLabels != null )
             FmtLog.debug(LOG, "[%s] Security-Label %s", id, dataDftLabels);
         else
@@ -288,7 +813,7 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
             FmtLog.debug(LOG, "[%s] Dataset default label: %s", id, dsgz.getDefaultLabel());
 
         // Stream to database
-        StreamRDF rdfData = StreamRDFLib.dataset(dsgz.getBase());
+        StreamRDF rdfData = StreamRDFLib.dataset(target.data);
 
         if ( canStream(lang, dataDftLabels) ) {
             StreamRDF destination = rdfData;
@@ -296,50 +821,124 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
                 // Go straight to the database.
                 // The dataset default label will apply at access time.
             } else {
-                LabelsStore labelStore = dsgz.labelsStore();
+                PendingLabels labels = target.labels;
                 // Stream to labels store.
                 StreamRDF storeLabels = new StreamRDFWrapper(rdfData) {
                     @Override
                     public void triple(Triple triple) {
-                        labelStore.add(triple, dataDftLabels);
+                        labels.add(triple, dataDftLabels);
                         other.triple(triple);
                     }
                 };
                 destination = storeLabels;
             }
-            long count = incomingData(id, request, lang, data, destination);
+            long count = incomingData(id, request, lang, data, destination, target);
+        } else if ( isBinaryRDF(lang) ) {
+            // Binary RDF: triples and quads.
+            // Header labels are recorded as the data arrives; a labels graph is
+            // only created if the data includes one.
+            StreamRDFLabelled destination = new StreamRDFLabelled(rdfData, target.labels, dataDftLabels, labelsSpillThreshold);
+            long count = incomingData(id, request, lang, data, destination, target);
+            destination.addLabelsGraph();
         } else {
             // Can't stream.
             // Do it by building a labels graph.
             // Get all the labels - as they may come first, we need to collect them
             // together, then process them before the txn commit.
-            Graph labelsGraph = GraphFactory.createDefaultGraph();
+            // A large labels graph is moved to disk.
+            Graph labelsGraph = new SpillingGraph(labelsSpillThreshold);
 
             StreamRDF destination = new StreamSplitter(rdfData, labelsGraph, dataDftLabels);
-            long count = incomingData(id, request, lang, data, destination);
-            applyLabels(dsgz, labelsGraph);
+            long count = incomingData(id, request, lang, data, destination, target);
+            target.labels.addGraph(labelsGraph);
         }
     }
 
     /** Destination is not a DatsetGhraphABAC/. Accept plain, unlabelled data.  */
-    private void actionDataNoLabels(String id, RequestFK request, Lang lang, InputStream data) {
+    private void actionDataNoLabels(String id, RequestFK request, Lang lang, InputStream data, MessageTarget target) {
         String headerSecurityLabel = request.getHeaders().get(SysABAC.H_SECURITY_LABEL);
         if ( headerSecurityLabel != null ) {
             String msg = format("[%s] Data received. Header %s encountered. This dataset does not support ABAC security labelling.", id, SysABAC.H_SECURITY_LABEL);
             throw new AuthzException(msg);
         }
 
-        StreamRDF rdfData = StreamRDFLib.dataset(dsg);
+        if ( target.prepared != null && target.prepared.hasLabelsQuads() ) {
+            String msg = format("[%s] This dataset does not support ABAC security labelling.", id);
+            throw new AuthzException(msg);
+        }
+
+        StreamRDF rdfData = StreamRDFLib.dataset(target.data);
 
-        if ( ! RDFLanguages.isTriples(lang) )
+        if ( ! RDFLanguages.isTriples(lang) || isBinaryRDF(lang) )
             // Detect any labels.
             rdfData = new StreamRDF_NoLabels(rdfData, id);
 
         // Plain load.
-        incomingData(id, request, lang, request.getInputStream(), rdfData);
+        incomingData(id, request, lang, data, rdfData, target);
         return;
     }
 
+    /**
+     * Labelled data in a binary RDF syntax, or any syntax when bulk loading.
+     * Triples and quads go to the database
+     * and the header labels are recorded for each of them as they arrive. Quads
+     * for the labels graph are collected in a {@link SpillingGraph}, created
+     * when the first such quad is seen.
+     */
+    private static class StreamRDFLabelled extends StreamRDFWrapper {
+        private final PendingLabels labels;
+        private final List<String> dftLabels;
+        private final long spillThreshold;
+        private final PrefixMapping prefixes = PrefixMapping.Factory.create();
+        private Graph labelsGraph = null;
+
+        StreamRDFLabelled(StreamRDF other, PendingLabels labels, List<String> dftLabels, long spillThreshold) {
+            super(other);
+            this.labels = labels;
+            this.dftLabels = ( dftLabels == null || dftLabels.isEmpty() ) ? null : dftLabels;
+            this.spillThreshold = spillThreshold;
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            prefixes.setNsPrefix(prefix, iri);
+            if ( labelsGraph != null )
+                labelsGraph.getPrefixMapping().setNsPrefix(prefix, iri);
+            other.prefix(prefix, iri);
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            if ( dftLabels != null )
+                labels.add(triple, dftLabels);
+            other.triple(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            if ( isLabelsQuad(quad) ) {
+                if ( labelsGraph == null ) {
+                    labelsGraph = new SpillingGraph(spillThreshold);
+                    labelsGraph.getPrefixMapping().setNsPrefixes(prefixes);
+                }
+                labelsGraph.add(quad.asTriple());
+                return;
+            }
+            if ( dftLabels != null )
+                labels.add(quad.asTriple(), dftLabels);
+            other.quad(quad);
+        }
+
+        /**
+         * Pass the labels graph, if any, to the pending labels. The labels in the
+         * graph are written after the header labels so they take precedence.
+         */
+        void addLabelsGraph() {
+            labels.addGraph(labelsGraph);
+            labelsGraph = null;
+        }
+    }
+
     /** Reject qdata if the a quad is for the labels graph */
     private static class StreamRDF_NoLabels extends StreamRDFWrapper {
         private final String id;
@@ -362,7 +961,7 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
     }
 
     /** Looks like a labels quad. */
-    private static boolean isLabelsQuad(Quad quad) {
+    static boolean isLabelsQuad(Quad quad) {
         Node gn = quad.getGraph();
         return VocabAuthz.graphForLabels.equals(gn);
     }
@@ -372,14 +971,30 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
      * only going to come from the header only.
      */
     private boolean canStream(Lang lang, List<String> defaultLabels) {
-        return RDFLanguages.isTriples(lang);
+        return RDFLanguages.isTriples(lang) && ! isBinaryRDF(lang);
+    }
+
+    /**
+     * RDF Thrift and RDF Protobuf. These can carry triples and quads, so the
+     * labels graph may be present.
+     */
+    static boolean isBinaryRDF(Lang lang) {
+        return Lang.RDFTHRIFT.equals(lang) || Lang.RDFPROTO.equals(lang);
     }
 
-    private long incomingData(String id, RequestFK request, Lang lang, InputStream data, StreamRDF dest) {
+    private long incomingData(String id, RequestFK request, Lang lang, InputStream data, StreamRDF dest, MessageTarget target) {
         StreamRDFCounting countingDest = StreamRDFLib.count(dest);
         String base = "kafka://"+request.getTopic()+"/";
+        InputStream body = null;
         try {
-            parse(id, countingDest, data, lang, base);
+            if ( target.prepared != null && target.prepared.isData(lang) )
+                target.prepared.replayData(countingDest);
+            else {
+                body = messageBody(request, data);
+                parse(id, countingDest, body, lang, base);
+            }
+            messageTriples = countingDest.countTriples();
+            messageQuads = countingDest.countQuads();
             String details = UploadDetails.detailsStr(countingDest.count(), countingDest.countTriples(), countingDest.countQuads());
             if ( LOG.isDebugEnabled() )
                 LOG.debug(format("[%s] Body: Content-Length=%d, Content-Type=%s => %s : %s",
@@ -391,24 +1006,39 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
                             id, request.getByteCount(), request.getContentType(), ex.getMessage()));
             // Exhaust input.
             IO.skipToEnd(data);
+            target.fail(ex.getMessage());
             //throw ex;
             return -1;
+        } finally {
+            IO.closeSilent(body);
         }
     }
 
-    private static void applyLabels(DatasetGraphABAC dsgz, Graph labelsGraph) {
-        if ( labelsGraph == null || labelsGraph.isEmpty() )
+    /**
+     * The body of a message, from the claim-check file if there is one, decoded
+     * for its {@code Content-Encoding}.
+     */
+    static InputStream messageBody(RequestFK request, InputStream data) {
+        return ContentEncodings.decode(request, ClaimCheck.open(request, data));
+    }
+
+    static void parse(String id, StreamRDF dest, InputStream input, Lang lang, String base) {
+        ParallelLineParser lineParser = ParallelLineParser.get();
+        if ( lineParser != null && ParallelLineParser.isLineBased(lang) ) {
+            lineParser.parse(dest, input, lang, base);
             return;
-        dsgz.labelsStore().addGraph(labelsGraph);
+        }
+        parse(dest, input, lang, base, NodeInterning.factoryRDF());
     }
 
-    private static void parse(String id, StreamRDF dest, InputStream input, Lang lang, String base) {
+    static void parse(StreamRDF dest, InputStream input, Lang lang, String base, FactoryRDF factory) {
         try {
             if ( ! RDFParserRegistry.isRegistered(lang) )
                 ServletOps.errorBadRequest("No parser for language '"+lang.getName()+"'");
             ErrorHandler errorHandler = ErrorHandlerFactory.errorHandlerStd(LOG);
             RDFParser.create()
                 .errorHandler(errorHandler)
+                .factory(factory)
                 .source(input)
                 .lang(lang)
                 .base(base)
@@ -420,10 +1050,9 @@ public class FKProcessorSAG extends FKProcessorBaseAction /*implements FKProcess
         }
     }
 
-    private List<String> parseAttributeList(String securityLabelsList) {
+    static List<String> parseAttributeList(String securityLabelsList) {
         if ( securityLabelsList == null )
             return null;
-        List<AttributeExpr> x = AE.parseExprList(securityLabelsList);
-        return AE.asStrings(x);
+        return SecurityLabelCache.get().parse(securityLabelsList);
     }
 }
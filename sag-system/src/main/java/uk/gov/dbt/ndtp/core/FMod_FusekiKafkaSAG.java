@@ -26,9 +26,13 @@
 package uk.gov.dbt.ndtp.core;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import uk.gov.dbt.ndtp.backup.services.DatasetBackupService;
@@ -36,11 +40,11 @@ import org.apache.jena.atlas.io.IOX;
 import org.apache.jena.atlas.lib.Pair;
 import org.apache.jena.atlas.logging.FmtLog;
 import org.apache.jena.fuseki.kafka.FKBatchProcessor;
-import org.apache.jena.fuseki.kafka.FKProcessor;
 import org.apache.jena.fuseki.kafka.FKS;
 import org.apache.jena.fuseki.kafka.FMod_FusekiKafka;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.fuseki.server.DataAccessPoint;
+import org.apache.jena.fuseki.server.DataAccessPointRegistry;
 import org.apache.jena.fuseki.servlets.ActionProcessor;
 import org.apache.jena.kafka.KConnectorDesc;
 import org.apache.jena.kafka.SysJenaKafka;
@@ -53,6 +57,18 @@ import static org.apache.jena.kafka.FusekiKafka.LOG;
 
 /**
  * Extension of {@link FMod_FusekiKafka} that directly applies a Kafka message batch.
+ * <p>
+ * If dead letters are configured (see {@link DeadLetterJournal}), failed messages
+ * can be listed and replayed with {@code /$/deadletters/list/*} and
+ * {@code /$/deadletters/replay/*}. These are not excluded from JWT
+ * authentication (see {@link FMod_JwtServletAuth}).
+ * <p>
+ * A dataset may be fed by several connectors, one for each topic. They take
+ * turns to write to the dataset, in proportion to the weights of their topics
+ * (see {@link WriteScheduler}).
+ * <p>
+ * {@code /$/ready} reports whether every connector has caught up with its topic
+ * since the server started (see {@link FKBatchProcessorSAG#READY_LAG}).
  */
 public class FMod_FusekiKafkaSAG extends FMod_FusekiKafka {
 
@@ -61,6 +77,16 @@ public class FMod_FusekiKafkaSAG extends FMod_FusekiKafka {
     public FMod_FusekiKafkaSAG() { super(); }
 
     Map<String, KConnectorDesc> connectors = new HashMap<>();
+    // Set when the connectors start, after the server has started; read by DeadLetterServlet.
+    final Map<String, DeadLetterJournal> deadLetters = new ConcurrentHashMap<>();
+    // By Kafka topic; a topic has one connector. Read by DeadLetterServlet.
+    final Map<String, FKBatchProcessorSAG> batchProcessors = new ConcurrentHashMap<>();
+    // Every connector, by dataset; read by ReadyServlet.
+    final Map<String, List<FKBatchProcessorSAG>> connectorProcessors = new ConcurrentHashMap<>();
+    volatile boolean connectorsStarted = false;
+    private final List<RequestIdFilter> requestIds = new CopyOnWriteArrayList<>();
+    // One per dataset, shared by the connectors for the topics feeding the dataset.
+    private final Map<String, WriteScheduler> schedulers = new ConcurrentHashMap<>();
 
     private static void init() {
         //default implementation override
@@ -77,6 +103,14 @@ public class FMod_FusekiKafkaSAG extends FMod_FusekiKafka {
         return String.format("Fuseki-Kafka Connector Module SAG (%s)", SysJenaKafka.VERSION);
     }
 
+    @Override
+    public void configured(FusekiServer.Builder serverBuilder, DataAccessPointRegistry dapRegistry, Model configModel) {
+        super.configured(serverBuilder, dapRegistry, configModel);
+        serverBuilder.addServlet("/$/deadletters/list/*", new DeadLetterServlet(this, false));
+        serverBuilder.addServlet("/$/deadletters/replay/*", new DeadLetterServlet(this, true));
+        serverBuilder.addServlet("/$/ready", new ReadyServlet(this));
+    }
+
     @Override
     public void serverBeforeStarting(FusekiServer server) {
         // No-op, intentionally DON'T start connectors prior to server start
@@ -89,6 +123,7 @@ public class FMod_FusekiKafkaSAG extends FMod_FusekiKafka {
         // Start the connectors after the server has started otherwise we can find ourselves in a
         // crash restart loop if SAG is significantly behind the Kafka topic(s) it is configured to read
         super.startKafkaConnectors(server);
+        connectorsStarted = true;
 
         // Still need to call the regular serverAfterStarting() as that does some clean up
         super.serverAfterStarting(server);
@@ -99,11 +134,47 @@ public class FMod_FusekiKafkaSAG extends FMod_FusekiKafka {
         String dispatchPath = conn.getLocalDispatchPath();
         connectors.put(dispatchPath, conn);
         DatasetGraph dsg = determineDataset(server, dispatchPath);
-        FKProcessor requestProcessor = new FKProcessorSAG(dsg, dispatchPath, server);
+        // Several connectors, one per topic, may feed a dataset.
+        DeadLetterJournal journal = deadLetters.computeIfAbsent(dispatchPath,
+                                        path -> DeadLetterJournal.create(path, conn.getKafkaConsumerProps()));
+        RequestIdFilter requestIdFilter = RequestIdFilter.create(conn.getStateFile());
+        if ( requestIdFilter != null )
+            requestIds.add(requestIdFilter);
+        WriteScheduler scheduler = schedulers.computeIfAbsent(dispatchPath, path -> WriteScheduler.create());
+        PatchChunks patchChunks = PatchChunks.create(conn.getStateFile());
+        FKProcessorSAG requestProcessor = new FKProcessorSAG(dsg, dispatchPath, server, journal, requestIdFilter, patchChunks);
         // Pass dsg as the transactional. Each batch will executed by
-        // requestProcessor inside a single transaction.
+        // requestProcessor inside a single transaction, or one per sub-batch.
         // See FKBatchProcessor.batchProcess.
-        return new FKBatchProcessor(dsg, requestProcessor);
+        FKBatchProcessorSAG batchProcessor = new FKBatchProcessorSAG(dsg, requestProcessor, offsetRecorder(conn), scheduler);
+        batchProcessors.put(conn.getTopic(), batchProcessor);
+        connectorProcessors.computeIfAbsent(dispatchPath, path -> new CopyOnWriteArrayList<>()).add(batchProcessor);
+        return batchProcessor;
+    }
+
+    @Override
+    public void serverStopped(FusekiServer server) {
+        // Stop applying before the dead-letter journals are closed.
+        connectorProcessors.values().forEach(processors -> processors.forEach(FKBatchProcessorSAG::stop));
+        deadLetters.values().forEach(DeadLetterJournal::close);
+        requestIds.forEach(RequestIdFilter::save);
+        super.serverStopped(server);
+    }
+
+    /**
+     * Record the offset of a committed sub-batch in the connector state file.
+     * The connector records the offset at the end of the whole batch.
+     */
+    private static LongConsumer offsetRecorder(KConnectorDesc conn) {
+        String stateFile = conn.getStateFile();
+        if ( stateFile == null )
+            return null;
+        return offset -> {
+            PersistentState persistentState = new PersistentState(stateFile);
+            if ( persistentState.getBytes().length == 0 )
+                return;
+            DataState.create(persistentState).setLastOffset(offset);
+        };
     }
 
     /** Find the dataset for direct operation, not via an endpoint */
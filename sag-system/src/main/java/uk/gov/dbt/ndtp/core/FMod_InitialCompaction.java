@@ -25,9 +25,12 @@
 
 package uk.gov.dbt.ndtp.core;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
 import uk.gov.dbt.ndtp.jena.abac.lib.DatasetGraphABAC;
 import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
 import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStoreRocksDB;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -57,6 +60,10 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FMod_InitialCompaction implements FusekiAutoModule {
 
@@ -66,6 +73,8 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
     public static final String DISABLE_INITIAL_COMPACTION = "DISABLE_INITIAL_COMPACTION";
     private static final String VERSION = Version.versionForClass(FMod_InitialCompaction.class).orElse("<development>");
     static final Map<String, Long> sizes = new ConcurrentHashMap<>();
+    // The module is registered twice; start background label sweeps once.
+    private static final AtomicBoolean labelSweepsStarted = new AtomicBoolean(false);
 
     @Override
     public String name() {
@@ -98,12 +107,64 @@ public class FMod_InitialCompaction implements FusekiAutoModule {
 
         };
         serverBuilder.addServlet("/$/compactall", compactAllServlet);
+
+        // Remove labels of triples no longer in the database, for all datasets
+        HttpServlet labelsSweepServlet = new HttpServlet() {
+            @Override
+            public void doPost(HttpServletRequest req, HttpServletResponse res) {
+                ObjectNode resultNode = BackupUtils.MAPPER.createObjectNode();
+                try {
+                    for (DataAccessPoint dataAccessPoint : dapRegistry.accessPoints()) {
+                        LabelSweeper.Result result = LabelSweeper.sweep(dataAccessPoint.getDataService().getDataset(),
+                                                                        dataAccessPoint.getName());
+                        if (result != null) {
+                            ObjectNode datasetNode = resultNode.putObject(dataAccessPoint.getName());
+                            datasetNode.put("checked", result.checked());
+                            datasetNode.put("removed", result.removed());
+                        }
+                    }
+                    BackupUtils.processResponse(res, resultNode);
+                } catch (Exception e) {
+                    FmtLog.error(Fuseki.configLog, "Error while sweeping labels", e);
+                    BackupUtils.handleError(res, resultNode, e);
+                }
+            }
+        };
+        serverBuilder.addServlet("/$/labelsgc", labelsSweepServlet);
     }
 
     @Override
     public void serverAfterStarting(FusekiServer server) {
         // Run after starting
         compactDatabases(server);
+        startLabelSweeps(server);
+    }
+
+    /**
+     * Starts background sweeps of the labels stores, if configured
+     *
+     * @param server Server
+     */
+    private void startLabelSweeps(FusekiServer server) {
+        long interval = Configurator.get(LabelSweeper.GC_INTERVAL, Long::parseLong, 0L);
+        if (interval <= 0 || !labelSweepsStarted.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LabelSweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            for (String name : datasets) {
+                try {
+                    FKS.findDataset(server, name).ifPresent(dsg -> LabelSweeper.sweep(dsg, name));
+                } catch (Exception e) {
+                    FmtLog.error(LOG, "[%s] Labels sweep failed: %s", name, e.getMessage());
+                }
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        FmtLog.info(LOG, "Labels sweep every %d seconds", interval);
     }
 
     /**
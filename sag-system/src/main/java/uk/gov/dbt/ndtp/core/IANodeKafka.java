@@ -63,6 +63,35 @@ public class IANodeKafka {
      */
     public static final String TF_DATA_MODEL = "Data-Model";
 
+    /**
+     * Payload-Location : The file holding the message body, relative to the
+     * claim-check directory. The Kafka message value is not used.
+     * See {@link ClaimCheck}.
+     */
+    public static final String TF_PAYLOAD_LOCATION = "Payload-Location";
+
+    /**
+     * Payload-SHA256 : Hex SHA-256 digest of the file named by {@link #TF_PAYLOAD_LOCATION}.
+     */
+    public static final String TF_PAYLOAD_SHA256 = "Payload-SHA256";
+
+    /**
+     * Patch-Id : Identifier of an RDF Patch sent as several messages ("chunks").
+     * See {@link PatchChunks}.
+     */
+    public static final String TF_PATCH_ID = "Patch-Id";
+
+    /**
+     * Patch-Chunk : Index, from 0, of the chunk of the patch {@link #TF_PATCH_ID} in this message.
+     */
+    public static final String TF_PATCH_CHUNK = "Patch-Chunk";
+
+    /**
+     * Patch-Chunks : Number of chunks of the patch {@link #TF_PATCH_ID}.
+     * The patch is applied when the last chunk arrives.
+     */
+    public static final String TF_PATCH_CHUNKS = "Patch-Chunks";
+
     /**
      * Exec-Path
      */
@@ -0,0 +1,163 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
+import uk.gov.dbt.ndtp.jena.abac.lib.DatasetGraphABAC;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.lib.Timer;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.system.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removal of labels for triples that are no longer in the database.
+ * <p>
+ * Deleting a triple does not remove its labels. A sweep reads the labels store,
+ * collects the entries for concrete triples that are not in the default graph of
+ * the base dataset, then removes them in batches. Each batch is a write
+ * transaction on the dataset and the triple is checked again before its labels
+ * are removed, so a triple added back in the meantime keeps its labels. Batches
+ * are spaced out to keep to a removal rate.
+ * <p>
+ * Label patterns with wildcards are not removed.
+ */
+public class LabelSweeper {
+
+    public static final Logger LOG = LoggerFactory.getLogger("uk.gov.dbt.ndtp.core.LabelSweeper");
+
+    /**
+     * Configuration: seconds between background sweeps of the labels stores.
+     * 0 (the default) means sweeps are only run from the admin endpoint.
+     */
+    public static final String GC_INTERVAL = "LABELS_GC_INTERVAL_S";
+
+    /** Configuration: number of label entries removed in one write transaction. */
+    public static final String GC_BATCH_SIZE = "LABELS_GC_BATCH_SIZE";
+
+    /** Configuration: maximum number of label entries removed per second. 0 means no limit. */
+    public static final String GC_RATE = "LABELS_GC_RATE";
+
+    /** Configuration: maximum number of label entries removed by one sweep. */
+    public static final String GC_MAX_PER_SWEEP = "LABELS_GC_MAX_PER_SWEEP";
+
+    private static final LongAdder sweeps = new LongAdder();
+    private static final LongAdder checked = new LongAdder();
+    private static final LongAdder removed = new LongAdder();
+
+    // One sweep at a time, background or admin.
+    private static final Object lock = new Object();
+
+    /** The outcome of a sweep of one dataset. */
+    public record Result(long checked, long removed) {}
+
+    private LabelSweeper() {}
+
+    /** Sweeps run. */
+    public static long sweeps() { return sweeps.sum(); }
+
+    /** Label entries checked by sweeps. */
+    public static long checked() { return checked.sum(); }
+
+    /** Label entries removed by sweeps. */
+    public static long removed() { return removed.sum(); }
+
+    /**
+     * Remove labels for triples not in the dataset.
+     * Returns null if the dataset does not have a labels store.
+     */
+    public static Result sweep(DatasetGraph dsg, String name) {
+        if ( ! (dsg instanceof DatasetGraphABAC dsgz) )
+            return null;
+        int batchSize = Math.max(1, Configurator.get(GC_BATCH_SIZE, Integer::parseInt, 1000));
+        long rate = Configurator.get(GC_RATE, Long::parseLong, 10_000L);
+        int maxPerSweep = Configurator.get(GC_MAX_PER_SWEEP, Integer::parseInt, 100_000);
+        synchronized(lock) {
+            return sweep(dsgz, name, batchSize, rate, maxPerSweep);
+        }
+    }
+
+    private static Result sweep(DatasetGraphABAC dsgz, String name, int batchSize, long rate, int maxPerSweep) {
+        Timer timer = new Timer();
+        timer.startTimer();
+        LabelsStore labelsStore = dsgz.labelsStore();
+        // Labels apply to triples in any graph, default or named.
+        DatasetGraph base = dsgz.getBase();
+
+        List<Triple> candidates = new ArrayList<>();
+        long[] count = { 0 };
+        Txn.executeRead(dsgz, ()->
+            labelsStore.forEach((triple, labels) -> {
+                count[0]++;
+                if ( candidates.size() < maxPerSweep && triple.isConcrete() && ! isLive(base, triple) )
+                    candidates.add(triple);
+            }));
+        checked.add(count[0]);
+
+        long removedCount = 0;
+        long pauseMillis = ( rate > 0 ) ? (1000L * batchSize) / rate : 0;
+        for ( int start = 0 ; start < candidates.size() ; start += batchSize ) {
+            if ( start > 0 && pauseMillis > 0 ) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            List<Triple> batch = candidates.subList(start, Math.min(start + batchSize, candidates.size()));
+            removedCount += Txn.calculateWrite(dsgz, ()->{
+                long n = 0;
+                for ( Triple triple : batch ) {
+                    // Added back since it was checked.
+                    if ( isLive(base, triple) )
+                        continue;
+                    labelsStore.remove(triple);
+                    n++;
+                }
+                return n;
+            });
+        }
+        removed.add(removedCount);
+        sweeps.increment();
+        FmtLog.info(LOG, "[%s] Labels sweep: checked %,d, removed %,d in %s seconds",
+                    name, count[0], removedCount, Timer.timeStr(timer.endTimer()));
+        return new Result(count[0], removedCount);
+    }
+
+    /** Whether the triple is in the default graph or any named graph. */
+    private static boolean isLive(DatasetGraph base, Triple triple) {
+        return base.contains(Node.ANY, triple.getSubject(), triple.getPredicate(), triple.getObject());
+    }
+}
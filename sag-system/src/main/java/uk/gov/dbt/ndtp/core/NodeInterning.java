@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.lib.Cache;
+import org.apache.jena.atlas.lib.CacheFactory;
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.FactoryRDF;
+import org.apache.jena.riot.system.FactoryRDFStd;
+import org.apache.jena.riot.system.RiotLib;
+import org.apache.jena.riot.system.SyntaxLabels;
+
+/**
+ * IRI nodes shared between the parsers of Kafka messages.
+ * <p>
+ * The same predicates, classes and other IRIs recur across messages. The
+ * parser for each message is given a {@link FactoryRDF} that takes IRI nodes
+ * from a bounded cache shared by all parsers, including the parse-ahead
+ * threads, so a repeated IRI is one {@link Node} object rather than one per
+ * message. Blank node labels remain scoped to the message.
+ */
+class NodeInterning {
+
+    /**
+     * Configuration: maximum number of IRIs in the shared cache. 0 disables sharing;
+     * each parser then has its own cache, as usual for RIOT.
+     */
+    public static final String CACHE_SIZE = "KAFKA_NODE_CACHE_SIZE";
+
+    private static final int cacheSize = Configurator.get(CACHE_SIZE, Integer::parseInt, 50_000);
+    private static final Cache<String, Node> iris = (cacheSize > 0) ? CacheFactory.createCache(cacheSize) : null;
+
+    private NodeInterning() {}
+
+    /** A {@link FactoryRDF} for parsing one message. */
+    static FactoryRDF factoryRDF() {
+        return factoryRDF(SyntaxLabels.createLabelToNode());
+    }
+
+    /** A {@link FactoryRDF} for parsing part of a message, with the message's blank node labels. */
+    static FactoryRDF factoryRDF(LabelToNode labels) {
+        if ( iris == null )
+            return RiotLib.factoryRDF(labels);
+        return new FactoryRDFInterning(iris, labels);
+    }
+
+    private static class FactoryRDFInterning extends FactoryRDFStd {
+        private final Cache<String, Node> cache;
+
+        FactoryRDFInterning(Cache<String, Node> cache, LabelToNode labels) {
+            super(labels);
+            this.cache = cache;
+        }
+
+        @Override
+        public Node createURI(String uriStr) {
+            // Blank nodes written as IRIs are left to the message's label scope.
+            if ( RiotLib.isBNodeIRI(uriStr) )
+                return super.createURI(uriStr);
+            return cache.get(uriStr, super::createURI);
+        }
+    }
+}
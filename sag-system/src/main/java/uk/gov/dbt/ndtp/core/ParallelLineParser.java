@@ -0,0 +1,240 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.RuntimeIOException;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Parse N-Triples and N-Quads on several threads.
+ * <p>
+ * The input is cut into chunks at line boundaries. Chunks are parsed in
+ * parallel and the triples and quads of each chunk are sent to the destination
+ * in input order, so the destination sees the same stream as from a single
+ * parser. Blank node labels are allocated from one seed for the whole input,
+ * so the same label in different chunks is the same blank node.
+ * <p>
+ * At most two chunks per thread are read ahead of the destination. On a syntax
+ * error, the output before the error is sent and the error is thrown, as with a
+ * single parser; the line number is within the chunk.
+ */
+class ParallelLineParser {
+
+    /**
+     * Configuration: number of threads parsing one N-Triples or N-Quads message.
+     * 0 or 1 (the default) means such messages are parsed by one thread.
+     */
+    public static final String THREADS = "KAFKA_LINE_PARSE_THREADS";
+
+    /** Configuration: size, in bytes, of the chunks of a message parsed in parallel. */
+    public static final String CHUNK_SIZE = "KAFKA_LINE_PARSE_CHUNK";
+
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    private static final ParallelLineParser shared = create();
+
+    private final ExecutorService executor;
+    private final int window;
+    private final int chunkSize;
+
+    private static ParallelLineParser create() {
+        int threads = Configurator.get(THREADS, Integer::parseInt, 0);
+        if ( threads <= 1 )
+            return null;
+        int chunkSize = Configurator.get(CHUNK_SIZE, Integer::parseInt, 4 * 1024 * 1024);
+        return new ParallelLineParser(threads, chunkSize);
+    }
+
+    /** The configured parser, or null if line-based messages are parsed by one thread. */
+    static ParallelLineParser get() {
+        return shared;
+    }
+
+    /** Whether the syntax can be parsed in chunks of lines. */
+    static boolean isLineBased(Lang lang) {
+        return Lang.NTRIPLES.equals(lang) || Lang.NQUADS.equals(lang);
+    }
+
+    ParallelLineParser(int threads, int chunkSize) {
+        this.window = 2 * threads;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "KafkaLineParse-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Parse a stream of N-Triples or N-Quads to the destination. */
+    void parse(StreamRDF dest, InputStream input, Lang lang, String base) {
+        UUID seed = UUID.randomUUID();
+        Chunker chunker = new Chunker(input, chunkSize);
+        byte[] first = chunker.next();
+        if ( chunker.atEnd() ) {
+            // Small: parse here.
+            parseChunk(dest, first, lang, base, seed);
+            return;
+        }
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        dest.start();
+        try {
+            inFlight.add(submit(first, lang, base, seed));
+            while ( ! inFlight.isEmpty() ) {
+                while ( inFlight.size() < window && ! chunker.atEnd() )
+                    inFlight.add(submit(chunker.next(), lang, base, seed));
+                Chunk chunk = inFlight.removeFirst().get();
+                chunk.replay(dest);
+                if ( chunk.error != null )
+                    throw chunk.error;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeIOException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeIOException(ex.getCause());
+        } finally {
+            inFlight.forEach(f -> f.cancel(true));
+            dest.finish();
+        }
+    }
+
+    private Future<Chunk> submit(byte[] bytes, Lang lang, String base, UUID seed) {
+        return executor.submit(() -> {
+            Chunk chunk = new Chunk();
+            try {
+                parseChunk(chunk, bytes, lang, base, seed);
+            } catch (RuntimeException ex) {
+                chunk.error = ex;
+            }
+            return chunk;
+        });
+    }
+
+    private static void parseChunk(StreamRDF dest, byte[] bytes, Lang lang, String base, UUID seed) {
+        LabelToNode labels = LabelToNode.createScopeByDocumentHash(seed);
+        FKProcessorSAG.parse(dest, new ByteArrayInputStream(bytes), lang, base, NodeInterning.factoryRDF(labels));
+    }
+
+    /** Input cut after the last newline within each block read. */
+    private static class Chunker {
+        private final InputStream input;
+        private final int chunkSize;
+        private byte[] carry = new byte[0];
+        private boolean eof = false;
+
+        Chunker(InputStream input, int chunkSize) {
+            this.input = input;
+            this.chunkSize = chunkSize;
+        }
+
+        boolean atEnd() {
+            return eof && carry.length == 0;
+        }
+
+        byte[] next() {
+            try {
+                byte[] bytes = carry;
+                for (;;) {
+                    byte[] block = input.readNBytes(chunkSize);
+                    if ( block.length < chunkSize )
+                        eof = true;
+                    bytes = concat(bytes, block);
+                    if ( eof ) {
+                        carry = new byte[0];
+                        return bytes;
+                    }
+                    // A newline byte is never part of a multi-byte UTF-8 character.
+                    int idx = lastNewline(bytes, bytes.length - block.length);
+                    if ( idx >= 0 ) {
+                        carry = Arrays.copyOfRange(bytes, idx + 1, bytes.length);
+                        return Arrays.copyOf(bytes, idx + 1);
+                    }
+                    // A line longer than the chunk size: read more.
+                }
+            } catch (IOException ex) {
+                throw new RuntimeIOException(ex);
+            }
+        }
+
+        private static int lastNewline(byte[] bytes, int from) {
+            for ( int i = bytes.length - 1 ; i >= from ; i-- ) {
+                if ( bytes[i] == '\n' )
+                    return i;
+            }
+            return -1;
+        }
+
+        private static byte[] concat(byte[] a, byte[] b) {
+            if ( a.length == 0 )
+                return b;
+            byte[] bytes = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, bytes, a.length, b.length);
+            return bytes;
+        }
+    }
+
+    /** The output of parsing one chunk, in order. */
+    private static class Chunk implements StreamRDF {
+        private final List<Object> items = new ArrayList<>();
+        private RuntimeException error = null;
+
+        @Override public void start() {}
+        @Override public void triple(Triple triple) { items.add(triple); }
+        @Override public void quad(Quad quad) { items.add(quad); }
+        @Override public void base(String base) {}
+        @Override public void prefix(String prefix, String iri) {}
+        @Override public void finish() {}
+
+        void replay(StreamRDF dest) {
+            for ( Object item : items ) {
+                if ( item instanceof Triple triple )
+                    dest.triple(triple);
+                else
+                    dest.quad((Quad)item);
+            }
+        }
+    }
+}
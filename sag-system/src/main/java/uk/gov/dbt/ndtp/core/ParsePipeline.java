@@ -0,0 +1,162 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.kafka.RequestFK;
+
+/**
+ * Parse the messages of a batch on a pool of threads, ahead of them being
+ * applied, in order, by the single writer.
+ * <p>
+ * At most a fixed number of messages, and at most a given number of bytes of
+ * message bodies, are parsed ahead of the writer, so memory use is bounded by the
+ * window, not the batch size. The parsed form of a message is several times the
+ * size of its body. A message larger than the byte limit is not parsed ahead; it
+ * is parsed by the writer as it is applied.
+ * <p>
+ * {@link #start}, {@link #take} and {@link #finish} are called from the Kafka
+ * polling thread only. After {@link #shutdown}, messages are no longer parsed
+ * ahead.
+ */
+class ParsePipeline {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger(0);
+
+    private record InFlight(Future<PreparedMessage> future, long bytes) {}
+
+    private final ExecutorService executor;
+    private final int window;
+    private final long maxBytes;
+
+    private List<RequestFK> requests = List.of();
+    private final Map<RequestFK, Integer> positions = new IdentityHashMap<>();
+    private final Map<RequestFK, InFlight> inFlight = new IdentityHashMap<>();
+    private long inFlightBytes = 0;
+    private int next = 0;
+
+    ParsePipeline(int threads, long maxBytes) {
+        this.window = 2 * threads;
+        this.maxBytes = maxBytes;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "KafkaParse-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Start parsing the requests of a batch. */
+    void start(List<RequestFK> batch) {
+        finish();
+        requests = batch;
+        for ( int i = 0 ; i < batch.size() ; i++ )
+            positions.put(batch.get(i), i);
+        fill();
+    }
+
+    /**
+     * Get the parsed form of a request, waiting for it if necessary.
+     * Returns null if the request was not part of the batch or could not be
+     * prepared; it is then processed in the usual way.
+     */
+    PreparedMessage take(RequestFK request) {
+        Integer position = positions.get(request);
+        if ( position == null )
+            return null;
+        // Requests earlier in the batch have been skipped.
+        if ( position >= next )
+            next = position + 1;
+        inFlight.entrySet().removeIf(e -> {
+            if ( positions.get(e.getKey()) >= position )
+                return false;
+            cancel(e.getValue());
+            inFlightBytes -= e.getValue().bytes();
+            return true;
+        });
+        InFlight parsing = inFlight.remove(request);
+        if ( parsing != null )
+            inFlightBytes -= parsing.bytes();
+        fill();
+        if ( parsing == null )
+            return null;
+        try {
+            return parsing.future().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | CancellationException ex) {
+            return null;
+        }
+    }
+
+    /** End of batch - discard any work not used. */
+    void finish() {
+        inFlight.values().forEach(ParsePipeline::cancel);
+        inFlight.clear();
+        inFlightBytes = 0;
+        positions.clear();
+        requests = List.of();
+        next = 0;
+    }
+
+    /** Stop the parsing threads. Called when the server stops. */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void cancel(InFlight parsing) {
+        parsing.future().cancel(true);
+    }
+
+    private void fill() {
+        while ( inFlight.size() < window && next < requests.size() ) {
+            RequestFK request = requests.get(next);
+            long bytes = ClaimCheck.byteCount(request);
+            if ( bytes > maxBytes ) {
+                // Too large to hold parsed: left to the writer.
+                next++;
+                continue;
+            }
+            if ( inFlightBytes + bytes > maxBytes )
+                return;
+            Future<PreparedMessage> future;
+            try {
+                future = executor.submit(() -> PreparedMessage.prepare(request));
+            } catch (RejectedExecutionException ex) {
+                // Shut down: the remaining messages are parsed by the writer.
+                return;
+            }
+            next++;
+            inFlight.put(request, new InFlight(future, bytes));
+            inFlightBytes += bytes;
+        }
+    }
+}
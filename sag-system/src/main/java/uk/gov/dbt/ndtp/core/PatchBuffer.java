@@ -0,0 +1,151 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.logging.FmtLog;
+
+/**
+ * The RDF Patch of a CQRS update as it is written: held in memory until it
+ * reaches a given size, then moved to a temporary file.
+ * <p>
+ * After writing, the patch is read back with {@link #open()}. The temporary
+ * file is removed by {@link #delete()}.
+ */
+class PatchBuffer extends OutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long threshold;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream(8 * 1024);
+    private Path file = null;
+    private OutputStream fileOut = null;
+    private long size = 0;
+
+    /**
+     * @param threshold Number of bytes to hold in memory; 0 or less means never spill.
+     */
+    PatchBuffer(long threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        target().write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        ensureCapacity(len);
+        target().write(bytes, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if ( fileOut != null )
+            fileOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if ( fileOut != null )
+            fileOut.close();
+    }
+
+    /** Number of bytes written. */
+    long size() {
+        return size;
+    }
+
+    /** Whether the patch has moved to a temporary file. */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /** The bytes of a patch held in memory. */
+    byte[] toByteArray() {
+        if ( memory == null )
+            throw new IllegalStateException("Patch is in a file");
+        return memory.toByteArray();
+    }
+
+    /** Read the patch. The writing must have been flushed. */
+    InputStream open() {
+        if ( file == null )
+            return new ByteArrayInputStream(memory.toByteArray());
+        try {
+            return new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+    }
+
+    /** Release the patch, removing any temporary file. */
+    void delete() {
+        memory = null;
+        if ( file == null )
+            return;
+        try {
+            fileOut.close();
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            FmtLog.warn(CQRS.LOG, "Failed to delete %s: %s", file, ex.getMessage());
+        }
+        file = null;
+        fileOut = null;
+    }
+
+    private OutputStream target() {
+        return ( fileOut != null ) ? fileOut : memory;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if ( fileOut == null && threshold > 0 && size + len > threshold )
+            spill();
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("cqrs-patch-", ".rdfp");
+        FmtLog.debug(CQRS.LOG, "Patch larger than %d bytes: moving to %s", threshold, file);
+        fileOut = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+}
@@ -0,0 +1,262 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.kafka.FusekiKafka;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.RiotException;
+
+/**
+ * RDF Patches sent as several Kafka messages ("chunks").
+ * <p>
+ * Each chunk has the headers {@link IANodeKafka#TF_PATCH_ID},
+ * {@link IANodeKafka#TF_PATCH_CHUNK} and {@link IANodeKafka#TF_PATCH_CHUNKS};
+ * the other headers (Content-Type, Content-Encoding, Security-Label) apply to
+ * the whole patch. Chunks are written to files as they arrive, so they survive
+ * a restart between chunks. When the last chunk arrives, the whole patch is
+ * streamed from the files and applied as one message. The files are deleted
+ * when the batch, or sub-batch, that applied the patch commits.
+ * <p>
+ * The chunks of a patch that is never completed (the producer stopped part way
+ * through) or never committed (the batch failed and was passed over) are
+ * deleted once no chunk of the patch has arrived for {@link #MAX_AGE_MS}.
+ * <p>
+ * If the whole patch fails to apply, its last chunk is the dead letter and the
+ * chunk files are kept ({@link #failed}), so that replaying the last chunk
+ * within {@link #MAX_AGE_MS} applies the whole patch again.
+ * <p>
+ * A whole patch may be larger than memory, so it is not applied through the
+ * buffers of message isolation or patch coalescing: without isolation, a patch
+ * that fails part way through leaves the changes before the failure.
+ */
+public class PatchChunks {
+
+    /**
+     * Configuration: milliseconds after the last chunk of a patch arrived at
+     * which the chunks of an incomplete patch are deleted.
+     */
+    public static final String MAX_AGE_MS = "KAFKA_PATCH_CHUNK_MAX_AGE_MS";
+
+    private static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Patch-Ids are used as file names.
+    private static final Pattern PATCH_ID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+    private Path dir;
+    private final long maxAgeMillis;
+    private long lastExpired = 0;
+    // Patches applied in the current batch.
+    private final Set<String> applied = new LinkedHashSet<>();
+
+    /**
+     * The chunk store of a connector, beside the connector state file, or in a
+     * temporary directory if there is no state file.
+     */
+    static PatchChunks create(String stateFile) {
+        return new PatchChunks(( stateFile == null ) ? null : Path.of(stateFile + ".chunks"));
+    }
+
+    /**
+     * @param dir Where chunks are kept; null for a temporary directory, created when first needed.
+     */
+    PatchChunks(Path dir) {
+        this(dir, Configurator.get(MAX_AGE_MS, Long::parseLong, DEFAULT_MAX_AGE_MS));
+    }
+
+    /**
+     * @param dir          Where chunks are kept; null for a temporary directory.
+     * @param maxAgeMillis Age at which the chunks of an incomplete patch are deleted; 0 or less to keep them.
+     */
+    PatchChunks(Path dir, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /** Whether the message is one chunk of a patch. */
+    static boolean isChunk(RequestFK request) {
+        return request.getHeaders().get(IANodeKafka.TF_PATCH_ID) != null;
+    }
+
+    /**
+     * Store a chunk. If it is the last chunk of its patch, return the whole patch,
+     * which the caller should close; otherwise return null.
+     *
+     * @throws RiotException if the chunk headers are not valid, or an earlier chunk is missing.
+     */
+    InputStream add(RequestFK request) {
+        String patchId = request.getHeaders().get(IANodeKafka.TF_PATCH_ID);
+        if ( ! PATCH_ID.matcher(patchId).matches() )
+            throw new RiotException("Bad " + IANodeKafka.TF_PATCH_ID + ": " + patchId);
+        int index = intHeader(request, IANodeKafka.TF_PATCH_CHUNK);
+        int count = intHeader(request, IANodeKafka.TF_PATCH_CHUNKS);
+        if ( index < 0 || index >= count )
+            throw new RiotException("Patch " + patchId + ": chunk " + index + " of " + count);
+        try {
+            Path patchDir = dir().resolve(patchId);
+            Files.createDirectories(patchDir);
+            // Write then rename, so a chunk delivered again replaces the file whole.
+            Path tmp = patchDir.resolve(index + ".tmp");
+            Files.write(tmp, request.getBytes());
+            Files.move(tmp, patchDir.resolve(Integer.toString(index)),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if ( index < count - 1 ) {
+                FmtLog.debug(FusekiKafka.LOG, "[%s] Patch chunk %d of %d", patchId, index + 1, count);
+                return null;
+            }
+            List<Path> files = new ArrayList<>(count);
+            for ( int i = 0 ; i < count ; i++ ) {
+                Path file = patchDir.resolve(Integer.toString(i));
+                if ( ! Files.exists(file) )
+                    throw new RiotException("Patch " + patchId + ": chunk " + i + " of " + count + " is missing");
+                files.add(file);
+            }
+            applied.add(patchId);
+            FmtLog.info(FusekiKafka.LOG, "[%s] Patch of %d chunks", patchId, count);
+            return new BufferedInputStream(new SequenceInputStream(opener(files.iterator())), BUFFER_SIZE);
+        } catch (IOException ex) {
+            throw new RiotException("Patch " + patchId + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * The batch has committed, or failed. If it committed, the chunks of the
+     * patches it applied are deleted. Stale incomplete patches are deleted.
+     */
+    void finished(boolean committed) {
+        if ( committed )
+            applied.forEach(patchId -> deleteAll(dir.resolve(patchId)));
+        applied.clear();
+        expire(System.currentTimeMillis());
+    }
+
+    /**
+     * Delete the chunks of patches to which no chunk has been added for the
+     * maximum age. Looks at most once per tenth of the maximum age.
+     */
+    void expire(long now) {
+        if ( maxAgeMillis <= 0 || dir == null || now - lastExpired < maxAgeMillis / 10 )
+            return;
+        lastExpired = now;
+        if ( ! Files.isDirectory(dir) )
+            return;
+        try (Stream<Path> patchDirs = Files.list(dir)) {
+            patchDirs.forEach(patchDir -> {
+                try {
+                    // Adding a chunk file updates the directory.
+                    long age = now - Files.getLastModifiedTime(patchDir).toMillis();
+                    if ( age < maxAgeMillis )
+                        return;
+                    FmtLog.warn(FusekiKafka.LOG, "[%s] Deleting the chunks of an incomplete patch: no chunk for %,d ms",
+                                patchDir.getFileName(), age);
+                    deleteAll(patchDir);
+                } catch (IOException ex) {
+                    FmtLog.warn(FusekiKafka.LOG, "Failed to check %s: %s", patchDir, ex.getMessage());
+                }
+            });
+        } catch (IOException ex) {
+            FmtLog.warn(FusekiKafka.LOG, "Failed to list %s: %s", dir, ex.getMessage());
+        }
+    }
+
+    /**
+     * The patch completed by this chunk failed to apply: keep its chunks, for
+     * replay, until they expire.
+     */
+    void failed(RequestFK request) {
+        String patchId = request.getHeaders().get(IANodeKafka.TF_PATCH_ID);
+        if ( applied.remove(patchId) )
+            FmtLog.warn(FusekiKafka.LOG, "[%s] Patch failed: chunks kept for replay", patchId);
+    }
+
+    private Path dir() throws IOException {
+        if ( dir == null )
+            dir = Files.createTempDirectory("patch-chunks-");
+        return dir;
+    }
+
+    private static int intHeader(RequestFK request, String header) {
+        String value = request.getHeaders().get(header);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (RuntimeException ex) {
+            throw new RiotException("Bad " + header + ": " + value);
+        }
+    }
+
+    // Open each file only when it is reached.
+    private static Enumeration<InputStream> opener(Iterator<Path> files) {
+        return new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return files.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(files.next());
+                } catch (IOException ex) {
+                    throw IOX.exception(ex);
+                }
+            }
+        };
+    }
+
+    private static void deleteAll(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ex) {
+                    FmtLog.warn(FusekiKafka.LOG, "Failed to delete %s: %s", path, ex.getMessage());
+                }
+            });
+        } catch (IOException ex) {
+            FmtLog.warn(FusekiKafka.LOG, "Failed to delete %s: %s", dir, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * Group commit of the RDF Patches of CQRS updates.
+ * <p>
+ * The patches of updates that commit within a short window are sent as one
+ * Kafka record, an RDF Patch of several transactions, instead of one record
+ * each. Patches are kept in commit order; consecutive patches with the same
+ * {@code Security-Label} header go in the same record, up to a size limit. Each
+ * update waits for the acknowledgement of the record holding its patch, and
+ * fails if that record fails.
+ * <p>
+ * The Kafka connector applies every transaction of such a record, in order,
+ * within the message (see {@code TestFKProcessorSAG.processorSAG_patch_multiTxn_1}).
+ */
+class PatchGroupCommit {
+
+    /**
+     * Configuration: milliseconds that the patch of a CQRS update may wait for
+     * the patches of other updates to be sent with it. 0 (the default) sends
+     * each patch as its own record.
+     */
+    public static final String WINDOW_MS = "CQRS_GROUP_COMMIT_MS";
+
+    /** Configuration: maximum size, in bytes, of a record of grouped patches. */
+    public static final String MAX_BYTES = "CQRS_GROUP_COMMIT_BYTES";
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CQRSGroupCommit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Entry(String securityLabel, byte[] body, CompletableFuture<RecordMetadata> published) {}
+
+    private final String topic;
+    private final Producer<String, byte[]> producer;
+    private final long windowMs;
+    private final int maxBytes;
+
+    private List<Entry> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+    private ScheduledFuture<?> scheduled = null;
+
+    /** The configured group commit for a topic, or null if patches are sent one by one. */
+    static PatchGroupCommit create(String topic, Producer<String, byte[]> producer) {
+        long windowMs = Configurator.get(WINDOW_MS, Long::parseLong, 0L);
+        if ( windowMs <= 0 || producer == null )
+            return null;
+        int maxBytes = Configurator.get(MAX_BYTES, Integer::parseInt, 512 * 1024);
+        FmtLog.info(CQRS.LOG, "[%s] Group commit: window=%dms, max=%d bytes", topic, windowMs, maxBytes);
+        return new PatchGroupCommit(topic, producer, windowMs, maxBytes);
+    }
+
+    PatchGroupCommit(String topic, Producer<String, byte[]> producer, long windowMs, int maxBytes) {
+        this.topic = topic;
+        this.producer = producer;
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Add the patch of an update. Called in commit order; {@code published} is
+     * completed when the record holding the patch is acknowledged.
+     */
+    synchronized void add(String securityLabel, byte[] body, CompletableFuture<RecordMetadata> published) {
+        pending.add(new Entry(securityLabel, body, published));
+        pendingBytes += body.length;
+        if ( pendingBytes >= maxBytes ) {
+            flush();
+            return;
+        }
+        if ( scheduled == null )
+            scheduled = timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Send the pending patches now. */
+    synchronized void flush() {
+        if ( scheduled != null ) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if ( pending.isEmpty() )
+            return;
+        List<Entry> entries = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        int start = 0;
+        while ( start < entries.size() ) {
+            Entry first = entries.get(start);
+            long bytes = first.body.length;
+            int end = start + 1;
+            while ( end < entries.size() ) {
+                Entry entry = entries.get(end);
+                if ( ! Objects.equals(first.securityLabel, entry.securityLabel) || bytes + entry.body.length > maxBytes )
+                    break;
+                bytes += entry.body.length;
+                end++;
+            }
+            send(entries.subList(start, end));
+            start = end;
+        }
+    }
+
+    private void send(List<Entry> group) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        group.forEach(entry -> bout.writeBytes(entry.body));
+        CompletableFuture<RecordMetadata> sent = new CompletableFuture<>();
+        try {
+            CQRS.sendToKafkaAsync(producer, topic, CQRS.patchHeaders(group.get(0).securityLabel), bout.toByteArray(), sent);
+        } catch (RuntimeException ex) {
+            sent.completeExceptionally(ex);
+        }
+        sent.whenComplete((metadata, ex) -> group.forEach(entry -> {
+            if ( ex != null )
+                entry.published.completeExceptionally(ex);
+            else
+                entry.published.complete(metadata);
+        }));
+    }
+}
@@ -0,0 +1,156 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+
+/**
+ * Label assignments made while processing Kafka messages, held until they are
+ * written to the {@link LabelsStore}.
+ * <p>
+ * Assignments are collected for a message and written when the message has been
+ * applied. The assignments of coalesced RDF Patch messages are collected for the
+ * batch and written with the net changes of the patches. The order of
+ * assignments is kept so that a later assignment for a triple is written after
+ * an earlier one, and so wins. An assignment of the same labels as the
+ * assignment already in effect for the triple is not recorded again.
+ * <p>
+ * A labels graph added to this collection is closed when it has been written or
+ * discarded; it may be a {@link SpillingGraph} holding temporary files.
+ * <p>
+ * This is not thread-safe. It is used by the Kafka polling thread.
+ */
+class PendingLabels {
+
+    private sealed interface Entry permits Assignment, LabelsGraph {}
+    private record Assignment(Triple triple, List<String> labels) implements Entry {}
+    private record LabelsGraph(Graph graph) implements Entry {}
+
+    private final List<Entry> entries = new ArrayList<>();
+    // The labels of the last assignment of each triple since the last labels graph.
+    private final Map<Triple, List<String>> latest = new HashMap<>();
+    private int size = 0;
+
+    PendingLabels() {}
+
+    /** Record the labels for a triple. */
+    void add(Triple triple, List<String> labels) {
+        if ( latest.containsKey(triple) && Objects.equals(latest.get(triple), labels) )
+            return;
+        latest.put(triple, labels);
+        entries.add(new Assignment(triple, labels));
+        size++;
+    }
+
+    /** Record a graph of label patterns (the labels graph of a TriG message). */
+    void addGraph(Graph labelsGraph) {
+        if ( labelsGraph == null )
+            return;
+        if ( labelsGraph.isEmpty() ) {
+            labelsGraph.close();
+            return;
+        }
+        entries.add(new LabelsGraph(labelsGraph));
+        size += labelsGraph.size();
+        // The graph may assign labels to any triple.
+        latest.clear();
+    }
+
+    /** Move the assignments of {@code other} to the end of this collection. */
+    void addAll(PendingLabels other) {
+        for ( Entry entry : other.entries ) {
+            switch (entry) {
+                case Assignment a -> add(a.triple(), a.labels());
+                case LabelsGraph g -> addGraph(g.graph());
+            }
+        }
+        other.reset();
+    }
+
+    /** Keep only the assignments for triples that pass the test. Labels graphs are kept. */
+    void retain(Predicate<Triple> test) {
+        entries.removeIf(entry -> {
+            if ( entry instanceof Assignment a && ! test.test(a.triple()) ) {
+                size--;
+                return true;
+            }
+            return false;
+        });
+        latest.clear();
+        for ( Entry entry : entries ) {
+            switch (entry) {
+                case Assignment a -> latest.put(a.triple(), a.labels());
+                case LabelsGraph g -> latest.clear();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** Number of pending assignments; a labels graph counts as one per label pattern triple. */
+    int size() {
+        return size;
+    }
+
+    /** Write the pending assignments to the labels store, in order, then forget them. */
+    void flush(LabelsStore labelsStore) {
+        if ( isEmpty() )
+            return;
+        for ( Entry entry : entries ) {
+            switch (entry) {
+                case Assignment a -> labelsStore.add(a.triple(), a.labels());
+                case LabelsGraph g -> labelsStore.addGraph(g.graph());
+            }
+        }
+        clear();
+    }
+
+    /** Forget the pending assignments without writing them. */
+    void clear() {
+        for ( Entry entry : entries ) {
+            if ( entry instanceof LabelsGraph g )
+                g.graph().close();
+        }
+        reset();
+    }
+
+    private void reset() {
+        entries.clear();
+        latest.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,218 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.rdfpatch.RDFChanges;
+import org.apache.jena.rdfpatch.RDFPatch;
+import org.apache.jena.rdfpatch.changes.RDFChangesCollector;
+import org.apache.jena.rdfpatch.text.RDFPatchReaderText;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParserRegistry;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * A Kafka message that has been parsed and checked, ready to be applied to the
+ * database. This is the work done by the {@link ParsePipeline} threads; it does
+ * not touch the database.
+ * <p>
+ * Errors are captured and rethrown when the message is applied so that the
+ * writer reports them in the same way as for a message that was parsed in-line.
+ * What was parsed before the error is kept and sent on first, as the parser
+ * would have done, so the outcome is the same as parsing in-line.
+ */
+class PreparedMessage {
+
+    private final Lang lang;
+    private final boolean isPatch;
+    private final List<String> labels;
+    private final RuntimeException labelsError;
+    private final StreamRDFBuffer data;
+    private final RDFPatch patch;
+    private final RuntimeException parseError;
+
+    private PreparedMessage(Lang lang, boolean isPatch,
+                            List<String> labels, RuntimeException labelsError,
+                            StreamRDFBuffer data, RDFPatch patch, RuntimeException parseError) {
+        this.lang = lang;
+        this.isPatch = isPatch;
+        this.labels = labels;
+        this.labelsError = labelsError;
+        this.data = data;
+        this.patch = patch;
+        this.parseError = parseError;
+    }
+
+    /**
+     * Parse a message.
+     * Return null if the message is not RDF data or an RDF Patch, in which case
+     * it is left to be handled when it is processed.
+     */
+    static PreparedMessage prepare(RequestFK request) {
+        String contentType = request.getContentType();
+        if ( contentType == null )
+            return null;
+        // Claim-check payloads are streamed when applied, not parsed into memory.
+        if ( ClaimCheck.isClaimCheck(request) )
+            return null;
+        // Chunks of a patch are collected, and the patch applied, in order.
+        if ( PatchChunks.isChunk(request) )
+            return null;
+        String ct = ContentType.create(contentType).getContentTypeStr();
+        boolean isPatch = WebContent.contentTypePatch.equalsIgnoreCase(ct);
+        Lang lang = isPatch ? null : RDFLanguages.contentTypeToLang(ct);
+        if ( ! isPatch && ( lang == null || ! RDFParserRegistry.isRegistered(lang) ) )
+            return null;
+
+        List<String> labels = null;
+        RuntimeException labelsError = null;
+        try {
+            labels = FKProcessorSAG.parseAttributeList(request.getHeaders().get(SysABAC.H_SECURITY_LABEL));
+        } catch (RuntimeException ex) {
+            labelsError = ex;
+        }
+
+        RDFChangesCollector collector = null;
+        StreamRDFBuffer buffer = null;
+        try {
+            InputStream input = ContentEncodings.decode(request, request.getInputStream());
+            if ( isPatch ) {
+                collector = new RDFChangesCollector();
+                new RDFPatchReaderText(input).apply(collector);
+                return new PreparedMessage(null, true, labels, labelsError, null, collector.getRDFPatch(), null);
+            }
+            buffer = new StreamRDFBuffer();
+            String base = "kafka://"+request.getTopic()+"/";
+            FKProcessorSAG.parse(null, buffer, input, lang, base);
+            return new PreparedMessage(lang, false, labels, labelsError, buffer, null, null);
+        } catch (RuntimeException ex) {
+            // Keep the output up to the error.
+            RDFPatch partial = ( collector == null ) ? null : collector.getRDFPatch();
+            return new PreparedMessage(lang, isPatch, labels, labelsError, buffer, partial, ex);
+        }
+    }
+
+    /** Whether this is the parsed form of data in the given syntax. */
+    boolean isData(Lang lang) {
+        return ! isPatch && this.lang != null && this.lang.equals(lang);
+    }
+
+    boolean isPatch() {
+        return isPatch;
+    }
+
+    /** The labels from the {@code Security-Label} header, or null if there was no header. */
+    List<String> labels() {
+        if ( labelsError != null )
+            throw labelsError;
+        return labels;
+    }
+
+    /** Whether the data includes quads for the labels graph. */
+    boolean hasLabelsQuads() {
+        return data != null && data.hasLabelsQuads;
+    }
+
+    /**
+     * Send the data to a stream, as the parser would have done: if there was a
+     * parse error, the data before the error is sent, then the error is thrown.
+     */
+    void replayData(StreamRDF dest) {
+        if ( data != null )
+            data.replay(dest);
+        if ( parseError != null )
+            throw parseError;
+    }
+
+    /**
+     * Send the patch to a {@link RDFChanges}, as the patch reader would have done:
+     * if there was a parse error, the changes before the error are sent, then the
+     * error is thrown.
+     */
+    void replayPatch(RDFChanges dest) {
+        if ( patch != null )
+            patch.apply(dest);
+        if ( parseError != null )
+            throw parseError;
+    }
+
+    /** Parser output, in arrival order: prefixes, triples and quads as they were interleaved. */
+    private static class StreamRDFBuffer implements StreamRDF {
+        private record Prefix(String prefix, String iri) {}
+
+        private final List<Object> items = new ArrayList<>();
+        private boolean hasLabelsQuads = false;
+
+        @Override public void start() {}
+
+        @Override
+        public void triple(Triple triple) {
+            items.add(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            if ( FKProcessorSAG.isLabelsQuad(quad) )
+                hasLabelsQuads = true;
+            items.add(quad);
+        }
+
+        @Override public void base(String base) {}
+
+        @Override
+        public void prefix(String prefix, String iri) {
+            items.add(new Prefix(prefix, iri));
+        }
+
+        @Override public void finish() {}
+
+        void replay(StreamRDF dest) {
+            dest.start();
+            try {
+                for ( Object item : items ) {
+                    if ( item instanceof Triple triple )
+                        dest.triple(triple);
+                    else if ( item instanceof Quad quad )
+                        dest.quad(quad);
+                    else if ( item instanceof Prefix p )
+                        dest.prefix(p.prefix(), p.iri());
+                }
+            } finally {
+                dest.finish();
+            }
+        }
+    }
+}
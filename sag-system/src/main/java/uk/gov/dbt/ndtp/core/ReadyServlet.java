@@ -0,0 +1,73 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+/**
+ * Servlet for {@code GET /$/ready}: 200 when every dataset fed from Kafka has
+ * caught up with its topics, otherwise 503 (Service Unavailable), so that a
+ * server does not take queries while it is far behind.
+ * <p>
+ * A dataset is ready once each of its connectors has been within
+ * {@link FKBatchProcessorSAG#READY_LAG} messages of the end of its topic; it
+ * stays ready after that. Before the connectors start, the server is not ready.
+ */
+class ReadyServlet extends HttpServlet {
+
+    private final FMod_FusekiKafkaSAG module;
+
+    ReadyServlet(FMod_FusekiKafkaSAG module) {
+        this.module = module;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        ObjectNode resultNode = BackupUtils.MAPPER.createObjectNode();
+        try {
+            boolean ready = module.connectorsStarted;
+            ObjectNode datasetsNode = resultNode.putObject("datasets");
+            for ( var entry : module.connectorProcessors.entrySet() ) {
+                List<FKBatchProcessorSAG> processors = entry.getValue();
+                boolean datasetReady = processors.stream().allMatch(FKBatchProcessorSAG::isReady);
+                datasetsNode.put(entry.getKey(), datasetReady);
+                ready = ready && datasetReady;
+            }
+            resultNode.put("ready", ready);
+            if ( ! ready )
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            BackupUtils.processResponse(response, resultNode);
+        } catch (Exception exception) {
+            BackupUtils.handleError(response, resultNode, exception);
+        }
+    }
+}
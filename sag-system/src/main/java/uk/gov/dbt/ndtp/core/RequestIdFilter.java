@@ -0,0 +1,321 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.kafka.FusekiKafka;
+import org.slf4j.Logger;
+
+/**
+ * Request-Ids of Kafka messages already applied, so that a message delivered
+ * again (a producer retry, a topic re-published) can be skipped.
+ * <p>
+ * The most recent Request-Ids are held exactly. Optionally, a longer history is
+ * held in a rolling Bloom filter of two generations: when the current generation
+ * is full, it becomes the previous one and the oldest is dropped. A Bloom filter
+ * can report a Request-Id as seen when it has not been, with a probability of
+ * about one in a million, and that message is skipped.
+ * <p>
+ * Request-Ids of a batch are held as pending until the batch, or the sub-batch
+ * holding the message, commits; if the batch fails, those still pending are forgotten so the messages are not skipped when delivered
+ * again. The state is saved to a file from time to time, and when the server
+ * stops. If the file is behind, messages may be applied twice, as they would be
+ * without this filter.
+ * <p>
+ * Checking Request-Ids is not thread-safe; it is done by the thread applying
+ * Kafka batches. Saving may also be called when the server stops.
+ */
+public class RequestIdFilter {
+
+    private static Logger LOG = FusekiKafka.LOG;
+
+    /**
+     * Configuration: number of recent Request-Ids held exactly for skipping
+     * duplicate Kafka messages. 0 (the default) disables duplicate detection.
+     */
+    public static final String DEDUP_WINDOW = "KAFKA_DEDUP_WINDOW";
+
+    /**
+     * Configuration: number of further Request-Ids remembered, approximately, in a
+     * rolling Bloom filter. 0 (the default) means only the exact window is used.
+     */
+    public static final String DEDUP_HISTORY = "KAFKA_DEDUP_HISTORY";
+
+    // Bloom filter false positive rate of about 1e-6.
+    private static final double BITS_PER_ID = 28.8;
+    private static final int HASHES = 20;
+
+    private static final long SAVE_INTERVAL_MS = 10_000;
+    private static final int FILE_MAGIC = 0x52494446;   // "RIDF"
+
+    private final int window;
+    private final long history;
+    private final Path file;
+
+    private final LinkedHashSet<String> recent = new LinkedHashSet<>();
+    private final Set<String> pending = new LinkedHashSet<>();
+    private BloomFilter current;
+    private BloomFilter previous;
+    private long lastSaved = System.currentTimeMillis();
+    private boolean changed = false;
+
+    /**
+     * The filter for a Kafka connector, as configured, with its state kept
+     * beside the connector state file. Returns null if not configured.
+     */
+    static RequestIdFilter create(String stateFile) {
+        int window = Configurator.get(DEDUP_WINDOW, Integer::parseInt, 0);
+        if ( window <= 0 )
+            return null;
+        long history = Configurator.get(DEDUP_HISTORY, Long::parseLong, 0L);
+        Path file = ( stateFile == null ) ? null : Path.of(stateFile + ".requestids");
+        return new RequestIdFilter(window, history, file);
+    }
+
+    /**
+     * @param window  Number of recent Request-Ids held exactly.
+     * @param history Number of Request-Ids in each Bloom filter generation; 0 for none.
+     * @param file    Where the state is saved; may be null.
+     */
+    RequestIdFilter(int window, long history, Path file) {
+        this.window = window;
+        this.history = history;
+        this.file = file;
+        if ( history > 0 ) {
+            current = new BloomFilter(history);
+            previous = new BloomFilter(history);
+        }
+        if ( file != null && Files.exists(file) )
+            load();
+    }
+
+    /**
+     * Whether the Request-Id has been seen before, in a committed batch or earlier
+     * in this batch. If not, it is recorded as pending.
+     */
+    boolean isDuplicate(String requestId) {
+        if ( recent.contains(requestId) || pending.contains(requestId) )
+            return true;
+        if ( current != null && ( current.mightContain(requestId) || previous.mightContain(requestId) ) )
+            return true;
+        pending.add(requestId);
+        return false;
+    }
+
+    /** The batch has committed: the pending Request-Ids are now seen. */
+    synchronized void commit() {
+        commit(new ArrayList<>(pending));
+    }
+
+    /**
+     * Part of the batch has committed: these Request-Ids, if pending, are now
+     * seen. The other pending Request-Ids stay pending.
+     */
+    synchronized void commit(Collection<String> requestIds) {
+        boolean committed = false;
+        for ( String requestId : requestIds ) {
+            if ( ! pending.remove(requestId) )
+                continue;
+            committed = true;
+            recent.add(requestId);
+            if ( current != null ) {
+                if ( current.count() >= history ) {
+                    previous = current;
+                    current = new BloomFilter(history);
+                }
+                current.add(requestId);
+            }
+        }
+        if ( ! committed )
+            return;
+        // Drop the oldest.
+        Iterator<String> iter = recent.iterator();
+        for ( int excess = recent.size() - window ; excess > 0 ; excess-- ) {
+            iter.next();
+            iter.remove();
+        }
+        changed = true;
+        if ( System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MS )
+            save();
+    }
+
+    /** The batch failed: forget the pending Request-Ids. */
+    void abort() {
+        pending.clear();
+    }
+
+    /** Write the state to the file, if there is one and it has changed. */
+    synchronized void save() {
+        lastSaved = System.currentTimeMillis();
+        if ( file == null || ! changed )
+            return;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))) ) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(recent.size());
+            for ( String requestId : recent ) {
+                byte[] bytes = requestId.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.writeBoolean(current != null);
+            if ( current != null ) {
+                current.write(out);
+                previous.write(out);
+            }
+        } catch (IOException ex) {
+            FmtLog.warn(LOG, "Failed to save Request-Ids to %s: %s", tmp, ex.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch (IOException ex) {
+            FmtLog.warn(LOG, "Failed to save Request-Ids to %s: %s", file, ex.getMessage());
+        }
+    }
+
+    private void load() {
+        try ( DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))) ) {
+            if ( in.readInt() != FILE_MAGIC ) {
+                FmtLog.warn(LOG, "Not a Request-Id file: %s", file);
+                return;
+            }
+            int n = in.readInt();
+            for ( int i = 0 ; i < n ; i++ ) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                recent.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            if ( in.readBoolean() && current != null ) {
+                BloomFilter cur = BloomFilter.read(in);
+                BloomFilter prev = BloomFilter.read(in);
+                // Only use saved generations if the history size has not changed.
+                if ( cur.sameShape(current) && prev.sameShape(previous) ) {
+                    current = cur;
+                    previous = prev;
+                }
+            }
+        } catch (IOException ex) {
+            FmtLog.warn(LOG, "Failed to read Request-Ids from %s: %s", file, ex.getMessage());
+        }
+    }
+
+    /** Number of Request-Ids held exactly. */
+    int size() {
+        return recent.size();
+    }
+
+    /** Fixed size Bloom filter using double hashing. */
+    private static class BloomFilter {
+        private final long[] bits;
+        private final long numBits;
+        private long count;
+
+        BloomFilter(long capacity) {
+            this(new long[(int)Math.max(1, (long)Math.ceil(capacity * BITS_PER_ID / 64))], 0);
+        }
+
+        private BloomFilter(long[] bits, long count) {
+            this.bits = bits;
+            this.numBits = 64L * bits.length;
+            this.count = count;
+        }
+
+        long count() {
+            return count;
+        }
+
+        boolean sameShape(BloomFilter other) {
+            return bits.length == other.bits.length;
+        }
+
+        void add(String key) {
+            long h1 = hash1(key);
+            long h2 = hash2(key);
+            for ( int i = 0 ; i < HASHES ; i++ ) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                bits[(int)(bit >>> 6)] |= 1L << bit;
+            }
+            count++;
+        }
+
+        boolean mightContain(String key) {
+            long h1 = hash1(key);
+            long h2 = hash2(key);
+            for ( int i = 0 ; i < HASHES ; i++ ) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                if ( (bits[(int)(bit >>> 6)] & (1L << bit)) == 0 )
+                    return false;
+            }
+            return true;
+        }
+
+        // 64 bit FNV-1a.
+        private static long hash1(String key) {
+            long h = 0xcbf29ce484222325L;
+            for ( int i = 0 ; i < key.length() ; i++ ) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+
+        // String.hashCode, spread to 64 bits (murmur3 finalizer). Odd, so never 0.
+        private static long hash2(String key) {
+            long h = key.hashCode();
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h | 1;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeInt(bits.length);
+            for ( long word : bits )
+                out.writeLong(word);
+        }
+
+        static BloomFilter read(DataInputStream in) throws IOException {
+            long count = in.readLong();
+            long[] bits = new long[in.readInt()];
+            for ( int i = 0 ; i < bits.length ; i++ )
+                bits[i] = in.readLong();
+            return new BloomFilter(bits, count);
+        }
+    }
+}
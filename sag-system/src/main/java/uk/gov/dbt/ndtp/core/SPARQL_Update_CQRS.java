@@ -34,12 +34,15 @@ import static org.apache.jena.riot.web.HttpNames.paramUsingGraphURI;
 import static org.apache.jena.riot.web.HttpNames.paramUsingNamedGraphURI;
 
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import jakarta.servlet.http.HttpServletRequest;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
 import org.apache.jena.fuseki.Fuseki;
 import org.apache.jena.fuseki.servlets.*;
 import org.apache.jena.irix.IRIxResolver;
+import org.apache.jena.kafka.JenaKafkaException;
 import org.apache.jena.query.QueryBuildException;
 import org.apache.jena.query.QueryParseException;
 import org.apache.jena.query.Syntax;
@@ -49,6 +52,7 @@ import org.apache.jena.sparql.modify.UsingList;
 import org.apache.jena.update.UpdateAction;
 import org.apache.jena.update.UpdateException;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
 /**
  * Intended to extend SPARQL_Update
@@ -66,41 +70,65 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
 
     private final String topic;
     private final Producer<String, byte[]> producer;
+    private final PatchGroupCommit groupCommit;
     private final Consumer<HttpAction> onBegin;
     private final Consumer<HttpAction> onCommit;
     private final Consumer<HttpAction> onAbort;
+    private final boolean executeAsWrite;
 
     public SPARQL_Update_CQRS(String topic,
                               Producer<String, byte[]> producer,
                               Consumer<HttpAction> onBegin,
                               Consumer<HttpAction> onCommit,
                               Consumer<HttpAction> onAbort) {
+        this(topic, producer, null, onBegin, onCommit, onAbort);
+    }
+
+    SPARQL_Update_CQRS(String topic,
+                       Producer<String, byte[]> producer,
+                       PatchGroupCommit groupCommit,
+                       Consumer<HttpAction> onBegin,
+                       Consumer<HttpAction> onCommit,
+                       Consumer<HttpAction> onAbort) {
         super();
         this.topic = topic;
         this.producer = producer;
+        this.groupCommit = groupCommit;
         this.onBegin = onBegin;
         this.onCommit = onCommit;
         this.onAbort = onAbort;
+        this.executeAsWrite = Configurator.get(UPDATE_WRITE_TXN, Boolean::parseBoolean, true);
     }
 
-    // This can be a read-end action because the base dataset is only ever read.
-    // In CQRS.setup, there is a buffering dataset that stores the mutations.
-    private static final boolean EXECUTE_AS_WRITE = true;
+    /**
+     * Configuration flag to execute CQRS updates in a write transaction on the
+     * base dataset, so that updates run one at a time. This is the default.
+     * If set false, updates run in a read transaction: the base dataset is only
+     * ever read, and the changes go to the buffering dataset set up in
+     * {@link CQRS#startOperation}, so updates run in parallel and do not wait
+     * for the Kafka connector. Concurrent updates then each see the same
+     * snapshot, so one may overwrite the changes of another.
+     * Read when the update service is created.
+     */
+    public static final String UPDATE_WRITE_TXN = "CQRS_UPDATE_WRITE_TXN";
 
     @Override
     protected void execute(HttpAction action, InputStream input) {
         UsingList usingList = processProtocolUpdateCQRS(action.getRequest());
-        if (EXECUTE_AS_WRITE)
+        CompletableFuture<RecordMetadata> published = null;
+        CQRS.UpdateCQRS updateCtl = null;
+        if (executeAsWrite)
             action.beginWrite();
         else
-            // Need BufferingdDatasetGarph to report "write txn" even if base DSG is read.
+            // The buffering dataset reports a write transaction (see CQRS.startOperation).
             action.beginRead();
         try {
-            CQRS.UpdateCQRS updateCtl = CQRS.startOperation(topic, producer, action, onBegin, onCommit, onAbort);
+            updateCtl = CQRS.startOperation(topic, producer, groupCommit, action, onBegin, onCommit, onAbort);
             UpdateAction.parseExecute(usingList, updateCtl.dataset(), input, UPDATE_PARSE_BASE, Syntax.syntaxARQ);
             // Don't make the changes until read back from Kafka.
             CQRS.finishOperation(action, updateCtl);
-            if (EXECUTE_AS_WRITE)
+            published = updateCtl.published();
+            if (executeAsWrite)
                 action.abort();
             // Finished with this - it might have a large buffering dataset so clearly release it.
             updateCtl = null;
@@ -133,7 +161,19 @@ public class SPARQL_Update_CQRS extends SPARQL_Update {
                 abortSilent(action);
                 ServletOps.errorOccurred(ex.getMessage(), ex);
             }
-        } finally { action.end(); }
+        } finally {
+            // Any temporary files of a failed update.
+            CQRS.release(updateCtl);
+            action.end();
+        }
+        // The patch has been sent; wait for Kafka outside the transaction.
+        if ( published != null ) {
+            try {
+                CQRS.awaitPublished(action, published);
+            } catch (JenaKafkaException ex) {
+                ServletOps.errorOccurred(ex.getMessage(), ex);
+            }
+        }
     }
 
     //Necessary copies due to private.
@@ -0,0 +1,95 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.gov.dbt.ndtp.jena.abac.AE;
+import uk.gov.dbt.ndtp.jena.abac.attributes.AttributeExpr;
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.atlas.lib.Cache;
+import org.apache.jena.atlas.lib.CacheFactory;
+
+/**
+ * Cache of parsed {@code Security-Label} headers.
+ * <p>
+ * Producers reuse a small number of distinct headers across many messages so the
+ * parsed label list is kept, keyed by the header string. The cache is bounded
+ * and safe to use from the parsing threads and the Kafka polling thread.
+ */
+public class SecurityLabelCache {
+
+    /**
+     * Configuration: maximum number of distinct headers held. 0 disables caching.
+     */
+    public static final String CACHE_SIZE = "KAFKA_LABEL_CACHE_SIZE";
+
+    private static final SecurityLabelCache INSTANCE =
+            new SecurityLabelCache(Configurator.get(CACHE_SIZE, Integer::parseInt, 1000));
+
+    /** The cache shared by all Kafka connectors. */
+    public static SecurityLabelCache get() {
+        return INSTANCE;
+    }
+
+    private final Cache<String, List<String>> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    SecurityLabelCache(int maxSize) {
+        this.cache = (maxSize > 0)
+                ? CacheFactory.createCache(maxSize)
+                : CacheFactory.createNullCache();
+    }
+
+    /**
+     * Parse a header value into a list of labels, using the cached result if there is one.
+     * Parse errors are not cached.
+     */
+    public List<String> parse(String securityLabelsList) {
+        List<String> labels = cache.getIfPresent(securityLabelsList);
+        if ( labels != null ) {
+            hits.increment();
+            return labels;
+        }
+        misses.increment();
+        List<AttributeExpr> x = AE.parseExprList(securityLabelsList);
+        labels = List.copyOf(AE.asStrings(x));
+        cache.put(securityLabelsList, labels);
+        return labels;
+    }
+
+    /** Number of lookups answered from the cache. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Number of lookups that needed the header to be parsed. */
+    public long misses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,355 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.DatasetGraphWrapper;
+import org.apache.jena.sparql.core.GraphView;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.sys.TDBInternal;
+
+/**
+ * A dataset that reads from a base dataset and keeps its own changes, without
+ * changing the base dataset: the dataset of a CQRS update.
+ * <p>
+ * Added and deleted quads are held in memory until there are more than a given
+ * number, then moved to two temporary TDB2 databases on disk, so an update of
+ * millions of triples does not need them all on the heap. Reads see the base
+ * dataset with the changes applied, so the {@code WHERE} part of an update sees
+ * the changes made by the earlier operations of the same request.
+ * <p>
+ * The temporary databases are only used by the thread of the update, and are
+ * removed by {@link #close()}; the base dataset is not closed.
+ */
+class SpillingBufferingDatasetGraph extends DatasetGraphWrapper {
+
+    private static final int DELETE_BATCH = 10_000;
+
+    private final long threshold;
+    private DatasetGraph added = DatasetGraphFactory.create();
+    private DatasetGraph deleted = DatasetGraphFactory.create();
+    private long addedCount = 0;
+    private long deletedCount = 0;
+    private Path spillDir = null;
+
+    /**
+     * @param base      The dataset read, and never changed.
+     * @param threshold Number of changed quads to hold in memory; 0 or less means never spill.
+     */
+    SpillingBufferingDatasetGraph(DatasetGraph base, long threshold) {
+        super(base);
+        this.threshold = threshold;
+    }
+
+    /** Number of quads added that were not in the base dataset. */
+    long addedCount() {
+        return addedCount;
+    }
+
+    /** Number of quads of the base dataset deleted. */
+    long deletedCount() {
+        return deletedCount;
+    }
+
+    /** Whether the changes have moved to disk. */
+    boolean isSpilled() {
+        return spillDir != null;
+    }
+
+    // ---- Changes
+
+    @Override
+    public void add(Node g, Node s, Node p, Node o) {
+        if ( deleted.contains(g, s, p, o) ) {
+            deleted.delete(g, s, p, o);
+            deletedCount--;
+            return;
+        }
+        if ( get().contains(g, s, p, o) || added.contains(g, s, p, o) )
+            return;
+        added.add(g, s, p, o);
+        addedCount++;
+        checkSpill();
+    }
+
+    @Override
+    public void add(Quad quad) {
+        add(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+    }
+
+    @Override
+    public void delete(Node g, Node s, Node p, Node o) {
+        if ( added.contains(g, s, p, o) ) {
+            added.delete(g, s, p, o);
+            addedCount--;
+            return;
+        }
+        if ( ! get().contains(g, s, p, o) || deleted.contains(g, s, p, o) )
+            return;
+        deleted.add(g, s, p, o);
+        deletedCount++;
+        checkSpill();
+    }
+
+    @Override
+    public void delete(Quad quad) {
+        delete(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+    }
+
+    /**
+     * Delete by pattern, in batches of at most {@link #DELETE_BATCH} quads, so
+     * that clearing a large graph does not hold it on the heap.
+     * <p>
+     * The base dataset is never changed, so its matches are read in one pass and
+     * recorded, a batch at a time, in the deleted quads, which may be on disk.
+     * The matches in the added quads are removed a batch at a time, with no
+     * active iterator over the added quads while a batch is removed.
+     */
+    @Override
+    public void deleteAny(Node g, Node s, Node p, Node o) {
+        List<Quad> batch = new ArrayList<>(DELETE_BATCH);
+        Iterator<Quad> iter = get().find(g, s, p, o);
+        try {
+            while ( iter.hasNext() ) {
+                batch.add(iter.next());
+                if ( batch.size() == DELETE_BATCH ) {
+                    deleteBase(batch);
+                    batch.clear();
+                }
+            }
+        } finally {
+            Iter.close(iter);
+        }
+        deleteBase(batch);
+        batch.clear();
+
+        for (;;) {
+            Iterator<Quad> addedIter = added.find(g, s, p, o);
+            while ( batch.size() < DELETE_BATCH && addedIter.hasNext() )
+                batch.add(addedIter.next());
+            Iter.close(addedIter);
+            batch.forEach(added::delete);
+            addedCount -= batch.size();
+            if ( batch.size() < DELETE_BATCH )
+                return;
+            batch.clear();
+        }
+    }
+
+    /** Record quads of the base dataset as deleted. */
+    private void deleteBase(List<Quad> quads) {
+        for ( Quad quad : quads ) {
+            if ( deleted.contains(quad) )
+                continue;
+            deleted.add(quad);
+            deletedCount++;
+        }
+        checkSpill();
+    }
+
+    @Override
+    public void clear() {
+        deleteAny(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+    }
+
+    @Override
+    public void addGraph(Node graphName, Graph graph) {
+        graph.find().forEachRemaining(triple -> add(Quad.create(graphName, triple)));
+    }
+
+    @Override
+    public void removeGraph(Node graphName) {
+        deleteAny(graphName, Node.ANY, Node.ANY, Node.ANY);
+    }
+
+    // ---- Reads
+
+    @Override
+    public Iterator<Quad> find() {
+        return find(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+    }
+
+    @Override
+    public Iterator<Quad> find(Quad quad) {
+        return find(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+    }
+
+    @Override
+    public Iterator<Quad> find(Node g, Node s, Node p, Node o) {
+        if ( g != null && Quad.isUnionGraph(g) ) {
+            Iterator<Quad> iter = findNG(Node.ANY, s, p, o);
+            return Iter.map(Iter.distinct(Iter.map(iter, Quad::asTriple)), triple -> Quad.create(Quad.unionGraph, triple));
+        }
+        return Iter.concat(Iter.filter(get().find(g, s, p, o), quad -> ! deleted.contains(quad)),
+                           added.find(g, s, p, o));
+    }
+
+    @Override
+    public Iterator<Quad> findNG(Node g, Node s, Node p, Node o) {
+        if ( g != null && Quad.isUnionGraph(g) )
+            return find(g, s, p, o);
+        return Iter.concat(Iter.filter(get().findNG(g, s, p, o), quad -> ! deleted.contains(quad)),
+                           added.findNG(g, s, p, o));
+    }
+
+    @Override
+    public Stream<Quad> stream(Node g, Node s, Node p, Node o) {
+        return Iter.asStream(find(g, s, p, o));
+    }
+
+    @Override
+    public boolean contains(Node g, Node s, Node p, Node o) {
+        return find(g, s, p, o).hasNext();
+    }
+
+    @Override
+    public boolean contains(Quad quad) {
+        return contains(quad.getGraph(), quad.getSubject(), quad.getPredicate(), quad.getObject());
+    }
+
+    @Override
+    public boolean containsGraph(Node graphNode) {
+        if ( Quad.isDefaultGraph(graphNode) || Quad.isUnionGraph(graphNode) )
+            return true;
+        return contains(graphNode, Node.ANY, Node.ANY, Node.ANY);
+    }
+
+    @Override
+    public Iterator<Node> listGraphNodes() {
+        Iterator<Node> nodes = Iter.concat(get().listGraphNodes(), added.listGraphNodes());
+        return Iter.filter(Iter.distinct(nodes), this::containsGraph);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ! contains(Node.ANY, Node.ANY, Node.ANY, Node.ANY);
+    }
+
+    @Override
+    public long size() {
+        return Iter.count(listGraphNodes());
+    }
+
+    @Override
+    public Graph getDefaultGraph() {
+        return GraphView.createDefaultGraph(this);
+    }
+
+    @Override
+    public Graph getUnionGraph() {
+        return GraphView.createUnionGraph(this);
+    }
+
+    @Override
+    public Graph getGraph(Node graphNode) {
+        return GraphView.createNamedGraph(this, graphNode);
+    }
+
+    // ---- Disk
+
+    private void checkSpill() {
+        if ( spillDir == null && threshold > 0 && addedCount + deletedCount > threshold )
+            spill();
+    }
+
+    private void spill() {
+        try {
+            spillDir = Files.createTempDirectory("cqrs-spill-");
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+        FmtLog.info(CQRS.LOG, "Update changes more than %d quads: moving to %s", threshold, spillDir);
+        added = moveToDisk(added, spillDir.resolve("added"));
+        deleted = moveToDisk(deleted, spillDir.resolve("deleted"));
+    }
+
+    private static DatasetGraph moveToDisk(DatasetGraph memory, Path dir) {
+        DatasetGraph disk = DatabaseMgr.connectDatasetGraph(dir.toString());
+        // The transaction is never committed; it is discarded by close().
+        disk.begin(TxnType.WRITE);
+        memory.find().forEachRemaining(disk::add);
+        return disk;
+    }
+
+    /** Discard the changes, and any temporary databases. The base dataset is not closed. */
+    @Override
+    public void close() {
+        if ( spillDir != null ) {
+            try {
+                discard(added);
+                discard(deleted);
+            } finally {
+                deleteAll(spillDir);
+                spillDir = null;
+            }
+        }
+        added = DatasetGraphFactory.create();
+        deleted = DatasetGraphFactory.create();
+        addedCount = 0;
+        deletedCount = 0;
+    }
+
+    private static void discard(DatasetGraph disk) {
+        try {
+            disk.abort();
+            disk.end();
+        } finally {
+            TDBInternal.expel(disk);
+        }
+    }
+
+    private static void deleteAll(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ex) {
+                    FmtLog.warn(CQRS.LOG, "Failed to delete %s: %s", path, ex.getMessage());
+                }
+            });
+        } catch (IOException ex) {
+            FmtLog.warn(CQRS.LOG, "Failed to delete %s: %s", dir, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.apache.jena.atlas.io.IOX;
+import org.apache.jena.atlas.logging.FmtLog;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.jena.tdb2.sys.TDBInternal;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A graph that is held in memory until it reaches a given number of triples,
+ * then moves to a temporary TDB2 database on disk.
+ * <p>
+ * This is used to collect the labels graph of a TriG or N-Quads message. The
+ * label records of a message can arrive in any order relative to the data, so
+ * they are kept until the whole message has been read. A large message does not
+ * then need to hold all its labels on the heap.
+ * <p>
+ * The temporary database is only used by the thread that adds to the graph, and
+ * is removed by {@link #close()}. Prefixes are kept in memory.
+ */
+class SpillingGraph extends GraphBase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillingGraph.class);
+
+    private final long threshold;
+    private long inMemory = 0;
+    private Graph graph = GraphFactory.createDefaultGraph();
+    private Path spillDir = null;
+    private DatasetGraph spillDsg = null;
+
+    /**
+     * @param threshold Number of triples to hold in memory; 0 or less means never spill.
+     */
+    SpillingGraph(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /** Whether the graph has moved to disk. */
+    boolean isSpilled() {
+        return spillDsg != null;
+    }
+
+    @Override
+    public void performAdd(Triple triple) {
+        graph.add(triple);
+        if ( spillDsg == null && threshold > 0 && ++inMemory > threshold )
+            spill();
+    }
+
+    @Override
+    public void performDelete(Triple triple) {
+        graph.delete(triple);
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple triplePattern) {
+        return graph.find(triplePattern);
+    }
+
+    @Override
+    protected int graphBaseSize() {
+        return graph.size();
+    }
+
+    private void spill() {
+        try {
+            spillDir = Files.createTempDirectory("labels-spill-");
+        } catch (IOException ex) {
+            throw IOX.exception(ex);
+        }
+        FmtLog.info(LOG, "Labels graph larger than %d triples: moving to %s", threshold, spillDir);
+        spillDsg = DatabaseMgr.connectDatasetGraph(spillDir.toString());
+        // The transaction is never committed; it is discarded by close().
+        spillDsg.begin(TxnType.WRITE);
+        Graph disk = spillDsg.getDefaultGraph();
+        GraphUtil.addInto(disk, graph);
+        graph = disk;
+    }
+
+    @Override
+    public void close() {
+        if ( spillDsg != null ) {
+            try {
+                spillDsg.abort();
+                spillDsg.end();
+            } finally {
+                TDBInternal.expel(spillDsg);
+                deleteAll(spillDir);
+                spillDsg = null;
+                spillDir = null;
+            }
+        }
+        graph = GraphFactory.createDefaultGraph();
+        inMemory = 0;
+        super.close();
+    }
+
+    private static void deleteAll(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ex) {
+                    FmtLog.warn(LOG, "Failed to delete %s: %s", path, ex.getMessage());
+                }
+            });
+        } catch (IOException ex) {
+            FmtLog.warn(LOG, "Failed to delete %s: %s", dir, ex.getMessage());
+        }
+    }
+}
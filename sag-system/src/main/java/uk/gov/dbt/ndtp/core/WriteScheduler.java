@@ -0,0 +1,146 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
+import org.apache.jena.kafka.JenaKafkaException;
+
+/**
+ * Share the single writer of a dataset between the Kafka topics that feed it.
+ * <p>
+ * Each topic is a lane with a weight. A lane waiting to write is given the
+ * writer in weighted fair order: each lane accumulates the bytes it has
+ * written divided by its weight, and the waiting lane with the least goes
+ * next. A lane that has been idle starts level with the others rather than
+ * with credit for the time it was idle.
+ * <p>
+ * Batches of one topic are applied by one thread, in order, so per-topic
+ * ordering is kept. Only the interleaving of topics changes. For a large batch
+ * not to hold the writer for long, combine with
+ * {@link FKBatchProcessorSAG#COMMIT_LATENCY_MS} so the writer is given up
+ * between sub-batches.
+ */
+public class WriteScheduler {
+
+    /**
+     * Configuration: weights of the Kafka topics, as {@code topic=weight,...}.
+     * Topics not listed have weight 1.
+     */
+    public static final String TOPIC_WEIGHTS = "KAFKA_TOPIC_WEIGHTS";
+
+    private static class Lane {
+        final double weight;
+        double virtualTime = 0;
+        boolean waiting = false;
+        Lane(double weight) { this.weight = weight; }
+    }
+
+    private final Map<String, Double> weights;
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private boolean busy = false;
+    // Virtual time of the lane most recently given the writer.
+    private double virtualNow = 0;
+
+    /** A scheduler with the configured topic weights. */
+    static WriteScheduler create() {
+        String config = Configurator.get(TOPIC_WEIGHTS);
+        return new WriteScheduler(parseWeights(config));
+    }
+
+    WriteScheduler(Map<String, Double> weights) {
+        this.weights = Map.copyOf(weights);
+    }
+
+    /** Parse {@code topic=weight,...}. */
+    static Map<String, Double> parseWeights(String config) {
+        Map<String, Double> map = new HashMap<>();
+        if ( config == null || config.isBlank() )
+            return map;
+        for ( String item : config.split(",") ) {
+            String[] parts = item.trim().split("=");
+            if ( parts.length != 2 )
+                throw new IllegalArgumentException("Bad topic weight: '" + item + "' in " + TOPIC_WEIGHTS);
+            double weight = Double.parseDouble(parts[1].trim());
+            if ( weight <= 0 )
+                throw new IllegalArgumentException("Topic weight must be positive: '" + item + "' in " + TOPIC_WEIGHTS);
+            map.put(parts[0].trim(), weight);
+        }
+        return map;
+    }
+
+    /** Run an action, writing {@code bytes} for {@code topic}, when it is the topic's turn. */
+    <X> X execute(String topic, long bytes, Supplier<X> action) {
+        acquire(topic);
+        try {
+            return action.get();
+        } finally {
+            release(topic, bytes);
+        }
+    }
+
+    private synchronized void acquire(String topic) {
+        Lane lane = lanes.computeIfAbsent(topic, t -> new Lane(weights.getOrDefault(t, 1.0)));
+        lane.virtualTime = Math.max(lane.virtualTime, virtualNow);
+        lane.waiting = true;
+        try {
+            while ( busy || ! isNext(lane) )
+                wait();
+        } catch (InterruptedException ex) {
+            lane.waiting = false;
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new JenaKafkaException("Interrupted waiting to write for topic " + topic, ex);
+        }
+        lane.waiting = false;
+        busy = true;
+        virtualNow = lane.virtualTime;
+    }
+
+    private synchronized void release(String topic, long bytes) {
+        Lane lane = lanes.get(topic);
+        // At least one byte so that an empty batch still takes a turn.
+        lane.virtualTime += Math.max(1, bytes) / lane.weight;
+        busy = false;
+        notifyAll();
+    }
+
+    /** Whether the lane has the least virtual time of the waiting lanes; ties go to the higher weight. */
+    private boolean isNext(Lane lane) {
+        for ( Lane other : lanes.values() ) {
+            if ( other == lane || ! other.waiting )
+                continue;
+            if ( other.virtualTime < lane.virtualTime )
+                return false;
+            if ( other.virtualTime == lane.virtualTime && other.weight > lane.weight )
+                return false;
+        }
+        return true;
+    }
+}
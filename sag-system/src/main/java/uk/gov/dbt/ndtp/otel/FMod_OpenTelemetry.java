@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import uk.gov.dbt.ndtp.core.LabelSweeper;
+import uk.gov.dbt.ndtp.core.SecurityLabelCache;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.Meter;
@@ -93,6 +95,28 @@ public class FMod_OpenTelemetry implements FusekiModule {
         if ( ! ENABLED )
             return;
         dapRegistry.accessPoints().forEach(accessPoint -> buildMetrics(accessPoint));
+        buildIngestMetrics();
+    }
+
+    /** Metrics for the Kafka ingest and the labels stores that are not specific to a dataset. */
+    public static void buildIngestMetrics() {
+        Meter meter = JenaMetrics.getMeter("Jena", Jena.VERSION);
+        SecurityLabelCache labelCache = SecurityLabelCache.get();
+        meter.counterBuilder("secureagent.graph.kafka.label_cache.hits")
+             .setDescription("Security-Label headers found in the parsed label cache")
+             .buildWithCallback(measure -> measure.record(labelCache.hits()));
+        meter.counterBuilder("secureagent.graph.kafka.label_cache.misses")
+             .setDescription("Security-Label headers parsed because they were not in the cache")
+             .buildWithCallback(measure -> measure.record(labelCache.misses()));
+        meter.counterBuilder("secureagent.graph.labels.gc.sweeps")
+             .setDescription("Sweeps of the labels stores for labels of deleted triples")
+             .buildWithCallback(measure -> measure.record(LabelSweeper.sweeps()));
+        meter.counterBuilder("secureagent.graph.labels.gc.checked")
+             .setDescription("Label entries checked by labels store sweeps")
+             .buildWithCallback(measure -> measure.record(LabelSweeper.checked()));
+        meter.counterBuilder("secureagent.graph.labels.gc.removed")
+             .setDescription("Label entries of deleted triples removed by labels store sweeps")
+             .buildWithCallback(measure -> measure.record(LabelSweeper.removed()));
     }
 
     public static void buildMetrics(DataAccessPoint dap) {
@@ -0,0 +1,242 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.otel;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongHistogram;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import org.apache.jena.Jena;
+import org.apache.jena.atlas.web.ContentType;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.WebContent;
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+
+/**
+ * Metrics for the Kafka ingest of one dataset.
+ * <p>
+ * Batches are recorded by topic; messages by topic, content type and whether
+ * the message has a {@code Security-Label} header. All are also tagged with
+ * the dataset. Rates, such as triples per second, come from the counters.
+ * <p>
+ * The instruments are created from {@link JenaMetrics}, and created again if
+ * the OpenTelemetry instance is changed.
+ */
+@SuppressWarnings("deprecation")
+public class IngestMetrics {
+
+    public static final AttributeKey<String> KAFKA_TOPIC = AttributeKey.stringKey("kafka.topic");
+    public static final AttributeKey<String> CONTENT_TYPE = AttributeKey.stringKey("kafka.content_type");
+    public static final AttributeKey<String> LABELS = AttributeKey.stringKey("secureagent.labels");
+
+    /** {@link #CONTENT_TYPE} of an RDF Patch message. */
+    public static final String PATCH = "RDF-Patch";
+    /** {@link #CONTENT_TYPE} of a message with no Content-Type header. */
+    public static final String NO_CONTENT_TYPE = "none";
+    /** {@link #CONTENT_TYPE} of a message whose Content-Type is not an RDF syntax. */
+    public static final String OTHER_CONTENT_TYPE = "other";
+
+    public static final String LABELLED = "labelled";
+    public static final String UNLABELLED = "unlabelled";
+
+    private static final double NANOSECONDS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Latest consumer lag and offsets, by dataset and topic, read by the gauges.
+    private static final Map<Attributes, Long> consumerLags = new ConcurrentHashMap<>();
+    private static final Map<Attributes, Long> endOffsets = new ConcurrentHashMap<>();
+    private static final Map<Attributes, Long> appliedOffsets = new ConcurrentHashMap<>();
+
+    private record Instruments(Meter meter,
+                               LongHistogram batchSize, DoubleHistogram batchDuration,
+                               DoubleHistogram messageDuration, LongCounter bytes,
+                               LongCounter triples, LongCounter quads, LongCounter patchChanges,
+                               LongCounter labelWrites, LongCounter failures) {}
+
+    private static volatile Instruments instruments = null;
+
+    private final String dataset;
+    private final Attributes datasetAttributes;
+
+    public IngestMetrics(String dataset) {
+        this.dataset = Objects.requireNonNullElse(dataset, "");
+        this.datasetAttributes = Attributes.of(SemanticAttributes.DB_NAME, this.dataset);
+    }
+
+    /** A batch has been applied and committed. */
+    public void batch(String topic, int messages, long nanos) {
+        Instruments inst = instruments();
+        Attributes attributes = Attributes.of(SemanticAttributes.DB_NAME, dataset, KAFKA_TOPIC, topic);
+        inst.batchSize.record(messages, attributes);
+        inst.batchDuration.record(nanos / NANOSECONDS_PER_SECOND, attributes);
+    }
+
+    /**
+     * A message has been parsed and applied. For RDF data, the triples and quads
+     * read; for an RDF Patch, the number of changes.
+     */
+    public void message(RequestFK request, long bytes, long nanos, long triples, long quads, long patchChanges) {
+        Instruments inst = instruments();
+        Attributes attributes = messageAttributes(request);
+        inst.messageDuration.record(nanos / NANOSECONDS_PER_SECOND, attributes);
+        inst.bytes.add(bytes, attributes);
+        if ( triples > 0 )
+            inst.triples.add(triples, attributes);
+        if ( quads > 0 )
+            inst.quads.add(quads, attributes);
+        if ( patchChanges > 0 )
+            inst.patchChanges.add(patchChanges, attributes);
+    }
+
+    /** A message failed. */
+    public void failure(RequestFK request) {
+        instruments().failures.add(1, messageAttributes(request));
+    }
+
+    /** Label assignments written to the labels store. */
+    public void labelWrites(long count) {
+        if ( count > 0 )
+            instruments().labelWrites.add(count, datasetAttributes);
+    }
+
+    /** The consumer lag of a topic, from the consumer's last fetch. */
+    public void consumerLag(String topic, long lag) {
+        instruments();
+        consumerLags.put(Attributes.of(SemanticAttributes.DB_NAME, dataset, KAFKA_TOPIC, topic), lag);
+    }
+
+    /**
+     * The offsets of a topic: the end of the topic, from the consumer's last
+     * fetch, and the offset of the last message applied.
+     */
+    public void offsets(String topic, long endOffset, long appliedOffset) {
+        instruments();
+        Attributes attributes = Attributes.of(SemanticAttributes.DB_NAME, dataset, KAFKA_TOPIC, topic);
+        endOffsets.put(attributes, endOffset);
+        appliedOffsets.put(attributes, appliedOffset);
+    }
+
+    private Attributes messageAttributes(RequestFK request) {
+        String contentType = contentTypeName(request.getContentType());
+        String labels = request.getHeaders().containsKey(SysABAC.H_SECURITY_LABEL) ? LABELLED : UNLABELLED;
+        return Attributes.of(SemanticAttributes.DB_NAME, dataset, KAFKA_TOPIC, request.getTopic(),
+                             CONTENT_TYPE, contentType, LABELS, labels);
+    }
+
+    /**
+     * The content type as a metric attribute: the name of the RDF syntax, so that
+     * variations (parameters, case, aliases) are one value, or one of a fixed set.
+     * This keeps the number of attribute values bounded whatever producers send.
+     */
+    static String contentTypeName(String contentType) {
+        if ( contentType == null )
+            return NO_CONTENT_TYPE;
+        try {
+            String ct = ContentType.create(contentType).getContentTypeStr();
+            if ( WebContent.contentTypePatch.equalsIgnoreCase(ct) )
+                return PATCH;
+            Lang lang = RDFLanguages.contentTypeToLang(ct);
+            return ( lang == null ) ? OTHER_CONTENT_TYPE : lang.getName();
+        } catch (RuntimeException ex) {
+            return OTHER_CONTENT_TYPE;
+        }
+    }
+
+    private static Instruments instruments() {
+        Meter meter = JenaMetrics.getMeter("Jena", Jena.VERSION);
+        Instruments inst = instruments;
+        if ( inst != null && inst.meter == meter )
+            return inst;
+        synchronized(IngestMetrics.class) {
+            inst = instruments;
+            if ( inst == null || inst.meter != meter ) {
+                inst = build(meter);
+                instruments = inst;
+            }
+            return inst;
+        }
+    }
+
+    private static Instruments build(Meter meter) {
+        meter.gaugeBuilder("secureagent.graph.kafka.consumer.lag")
+             .setDescription("Messages on the Kafka topic not yet read by the connector")
+             .ofLongs()
+             .buildWithCallback(measure -> consumerLags.forEach((attributes, lag) -> measure.record(lag, attributes)));
+        meter.gaugeBuilder("secureagent.graph.kafka.offset.end")
+             .setDescription("Offset of the end of the Kafka topic")
+             .ofLongs()
+             .buildWithCallback(measure -> endOffsets.forEach((attributes, offset) -> measure.record(offset, attributes)));
+        meter.gaugeBuilder("secureagent.graph.kafka.offset.applied")
+             .setDescription("Offset of the last Kafka message applied to the dataset")
+             .ofLongs()
+             .buildWithCallback(measure -> appliedOffsets.forEach((attributes, offset) -> measure.record(offset, attributes)));
+        meter.gaugeBuilder("secureagent.graph.kafka.applied.lag")
+             .setDescription("Messages on the Kafka topic not yet applied to the dataset")
+             .ofLongs()
+             .buildWithCallback(measure -> endOffsets.forEach((attributes, end) -> {
+                 Long applied = appliedOffsets.get(attributes);
+                 if ( applied != null )
+                     measure.record(Math.max(0, end - applied - 1), attributes);
+             }));
+        return new Instruments(meter,
+            meter.histogramBuilder("secureagent.graph.kafka.batch.size")
+                 .setDescription("Messages in a batch")
+                 .ofLongs().setUnit("{message}").build(),
+            meter.histogramBuilder("secureagent.graph.kafka.batch.duration")
+                 .setDescription("Time to apply and commit a batch, including any wait for the writer")
+                 .setUnit("s").build(),
+            meter.histogramBuilder("secureagent.graph.kafka.message.duration")
+                 .setDescription("Time to parse a message and apply it to the dataset")
+                 .setUnit("s").build(),
+            meter.counterBuilder("secureagent.graph.kafka.bytes")
+                 .setDescription("Bytes of message bodies read")
+                 .setUnit("By").build(),
+            meter.counterBuilder("secureagent.graph.kafka.triples")
+                 .setDescription("Triples read from RDF data messages")
+                 .build(),
+            meter.counterBuilder("secureagent.graph.kafka.quads")
+                 .setDescription("Quads read from RDF data messages")
+                 .build(),
+            meter.counterBuilder("secureagent.graph.kafka.patch.changes")
+                 .setDescription("Additions and deletions read from RDF Patch messages")
+                 .build(),
+            meter.counterBuilder("secureagent.graph.kafka.labels.writes")
+                 .setDescription("Label assignments written to the labels store")
+                 .build(),
+            meter.counterBuilder("secureagent.graph.kafka.failures")
+                 .setDescription("Messages that failed to be applied")
+                 .build());
+    }
+}
@@ -203,4 +203,11 @@ public class LibTestsSAG {
         properties.put(ENABLE_BACKUPS, "false");
         Configurator.addSource(new PropertiesSource(properties));
     }
+
+    /** Set a configuration value, taking precedence over earlier settings. */
+    public static void setConfiguration(String name, String value) {
+        Properties properties = new Properties();
+        properties.put(name, value);
+        Configurator.addSource(new PropertiesSource(properties));
+    }
 }
@@ -24,14 +24,22 @@
 package uk.gov.dbt.ndtp;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static uk.gov.dbt.ndtp.LibTestsSAG.queryNoToken;
 import static uk.gov.dbt.ndtp.LibTestsSAG.queryWithToken;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
+import uk.gov.dbt.ndtp.core.FKBatchProcessorSAG;
 import uk.gov.dbt.ndtp.core.FKProcessorSAG;
+import uk.gov.dbt.ndtp.core.IANodeKafka;
 import uk.gov.dbt.ndtp.core.SecureAgentGraph;
 import uk.gov.dbt.ndtp.jena.abac.ABAC;
 import uk.gov.dbt.ndtp.jena.abac.AttributeValueSet;
@@ -46,15 +54,18 @@ import uk.gov.dbt.ndtp.jena.abac.labels.Labels;
 import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
 import uk.gov.dbt.ndtp.secure.agent.configuration.Configurator;
 import org.apache.jena.atlas.lib.Bytes;
+import org.apache.jena.fuseki.kafka.FKBatchProcessor;
 import org.apache.jena.fuseki.kafka.FKProcessor;
 import org.apache.jena.fuseki.main.FusekiServer;
 import org.apache.jena.fuseki.server.DataService;
 import org.apache.jena.fuseki.server.Operation;
 import org.apache.jena.fuseki.system.FusekiLogging;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.kafka.FusekiKafka;
 import org.apache.jena.kafka.RequestFK;
 import org.apache.jena.kafka.ResponseFK;
 import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
 import org.apache.jena.riot.RDFWriter;
 import org.apache.jena.riot.WebContent;
 import org.apache.jena.riot.web.HttpNames;
@@ -64,6 +75,12 @@ import org.apache.jena.sparql.exec.QueryExec;
 import org.apache.jena.sparql.exec.QueryExecDataset;
 import org.apache.jena.sparql.exec.RowSet;
 import org.apache.jena.sparql.exec.RowSetOps;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.*;
 
 /** Test the FusekiKafka processor inside SAG. */
@@ -169,6 +186,431 @@ class TestFKProcessorSAG {
         runTestProcessorSAGWithAuth(action);
     }
 
+    /** Message isolation: a message that fails part way through leaves no triples or labels. */
+    @Test
+    void processorSAG_load_isolation_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            LibTestsSAG.withLevel(FusekiKafka.LOG, "FATAL", ()->{
+                processorBatch(proc, getDatasetABAC(server),
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "good1" .
+                                       """, WebContent.contentTypeTurtle, attrPermit),
+                               // Relabels a triple of the first message before failing.
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "good1" .
+                                       :s :p "bad" .
+                                       JUNK
+                                       """, WebContent.contentTypeTurtle, attrOther),
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "good2" .
+                                       """, WebContent.contentTypeTurtle, attrPermit));
+            });
+            // The failed message is dropped completely.
+            checkDatasetSize(dsgBase, 2);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(2L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(0L, c2, "Count (user:other)");
+            // No labels from the failed message.
+            LabelsStore labelsStore = getDatasetABAC(server).labelsStore();
+            Triple shared = SSE.parseTriple("(<http://example/s> <http://example/p> 'good1')");
+            Triple bad = SSE.parseTriple("(<http://example/s> <http://example/p> 'bad')");
+            assertFalse(labelsStore.labelsForTriples(shared).contains(attrOther.asString()), "Label of the failed message");
+            assertTrue(labelsStore.labelsForTriples(bad).isEmpty(), "Labels of a triple of the failed message");
+        };
+        LibTestsSAG.setConfiguration(FKProcessorSAG.ENABLE_MESSAGE_ISOLATION, "true");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKProcessorSAG.ENABLE_MESSAGE_ISOLATION, "false");
+        }
+    }
+
+    /** Patch coalescing: only the net changes of a run of patches are applied, with their labels. */
+    @Test
+    void processorSAG_patch_coalesce_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            LibTestsSAG.withLevel(FusekiKafka.LOG, "FATAL", ()->{
+                processorBatch(proc, getDatasetABAC(server),
+                               request("""
+                                       A <http://example/s> <http://example/p> "data1" .
+                                       A <http://example/s> <http://example/p> "data2" .
+                                       """, WebContent.contentTypePatch, attrPermit),
+                               request("""
+                                       D <http://example/s> <http://example/p> "data1" .
+                                       """, WebContent.contentTypePatch, attrPermit),
+                               // Bad patch - dropped completely.
+                               request("""
+                                       A <http://example/s> <http://example/p> "data3" .
+                                       JUNK
+                                       """, WebContent.contentTypePatch, attrPermit),
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "data4" .
+                                       """, WebContent.contentTypeTurtle, attrOther),
+                               request("""
+                                       A <http://example/s> <http://example/p> "data5" .
+                                       """, WebContent.contentTypePatch, attrOther));
+            });
+            checkDatasetSize(dsgBase, 3);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(1L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(2L, c2, "Count (user:other)");
+        };
+        LibTestsSAG.setConfiguration(FKProcessorSAG.PATCH_COALESCE, "true");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PATCH_COALESCE, "false");
+        }
+    }
+
+    /** Messages parsed ahead of being applied, in offset order. */
+    @Test
+    void processorSAG_load_parseAhead_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            LibTestsSAG.withLevel(FusekiKafka.LOG, "FATAL", ()->{
+                processorBatch(proc, getDatasetABAC(server),
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "data1" .
+                                       """, WebContent.contentTypeTurtle, attrPermit),
+                               request("""
+                                       A <http://example/s> <http://example/p> "patch1" .
+                                       """, WebContent.contentTypePatch, attrPermit),
+                               request("""
+                                       D <http://example/s> <http://example/p> "data1" .
+                                       """, WebContent.contentTypePatch, attrPermit),
+                               request("""
+                                       JUNK
+                                       """, WebContent.contentTypeTurtle, attrPermit),
+                               request("""
+                                       PREFIX : <http://example/>
+                                       :s :p "data2" .
+                                       """, WebContent.contentTypeTurtle, attrOther));
+            });
+            checkDatasetSize(dsgBase, 2);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(1L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(1L, c2, "Count (user:other)");
+        };
+        LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "2");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "0");
+        }
+    }
+
+    /**
+     * Parsing ahead limited by bytes: one small message at a time is parsed ahead,
+     * and the message larger than the limit is parsed as it is applied.
+     */
+    @Test
+    void processorSAG_load_parseAhead_3() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            processorBatch(proc, getDatasetABAC(server),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data1" .
+                                   """, WebContent.contentTypeTurtle, attrPermit),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "large1" .
+                                   :s :p "large2" .
+                                   :s :p "large3" .
+                                   """, WebContent.contentTypeTurtle, attrPermit),
+                           request("""
+                                   A <http://example/s> <http://example/p> "patch1" .
+                                   """, WebContent.contentTypePatch, attrPermit),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data2" .
+                                   """, WebContent.contentTypeTurtle, attrOther));
+            checkDatasetSize(dsgBase, 6);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(5L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(1L, c2, "Count (user:other)");
+        };
+        LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "2");
+        LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_AHEAD_BYTES, "60");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "0");
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_AHEAD_BYTES, "67108864");
+        }
+    }
+
+    /** A record of grouped CQRS patches: every transaction is applied, whether parsed ahead or not. */
+    @Test
+    void processorSAG_patch_multiTxn_1() {
+        for ( String parseThreads : List.of("0", "2") ) {
+            TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+                String URL = server.datasetURL(DS_NAME);
+                checkDatasetSize(dsgBase, 0);
+                processorBatch(proc, getDatasetABAC(server),
+                               request("""
+                                       TX .
+                                       A <http://example/s> <http://example/p> "tx1" .
+                                       TC .
+                                       TX .
+                                       A <http://example/s> <http://example/p> "tx2" .
+                                       D <http://example/s> <http://example/p> "tx1" .
+                                       A <http://example/s> <http://example/p> "tx2b" .
+                                       TC .
+                                       TX .
+                                       A <http://example/s> <http://example/p> "tx3" .
+                                       TC .
+                                       """, WebContent.contentTypePatch, attrPermit));
+                checkDatasetSize(dsgBase, 3);
+                long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+                assertEquals(3L, c1, "Count (user:permit)");
+            };
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, parseThreads);
+            try {
+                runTestProcessorSAGWithAuth(action);
+            } finally {
+                LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "0");
+            }
+        }
+    }
+
+    /** Messages that fail part way through have the same effect whether parsed ahead or not. */
+    @Test
+    void processorSAG_load_parseAhead_2() {
+        long[] sizes = new long[2];
+        for ( int i = 0 ; i < sizes.length ; i++ ) {
+            int run = i;
+            TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+                LibTestsSAG.withLevel(FusekiKafka.LOG, "FATAL", ()->{
+                    processorBatch(proc, getDatasetABAC(server),
+                                   request("""
+                                           PREFIX : <http://example/>
+                                           :s :p "bad1" .
+                                           :s :p "bad2" .
+                                           JUNK
+                                           """, WebContent.contentTypeTurtle, attrPermit),
+                                   request("""
+                                           A <http://example/s> <http://example/p> "patch1" .
+                                           JUNK
+                                           """, WebContent.contentTypePatch, attrPermit),
+                                   request("""
+                                           PREFIX : <http://example/>
+                                           :s :p "data1" .
+                                           """, WebContent.contentTypeTurtle, attrPermit));
+                });
+                sizes[run] = datasetSize(dsgBase);
+            };
+            LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, ( run == 0 ) ? "0" : "2");
+            try {
+                runTestProcessorSAGWithAuth(action);
+            } finally {
+                LibTestsSAG.setConfiguration(FKProcessorSAG.PARSE_THREADS, "0");
+            }
+        }
+        assertEquals(sizes[0], sizes[1], "Dataset size (sequential, parse ahead)");
+    }
+
+    /** Batch split into sub-batches, one message each, with the offset recorded between them. */
+    @Test
+    void processorSAG_load_subBatch_1() {
+        List<Long> offsets = new ArrayList<>();
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            processorBatch(new FKBatchProcessorSAG(getDatasetABAC(server), (FKProcessorSAG)proc, offsets::add),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data1" .
+                                   """, WebContent.contentTypeTurtle, attrPermit),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data2" .
+                                   """, WebContent.contentTypeTurtle, attrPermit),
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data3" .
+                                   """, WebContent.contentTypeTurtle, attrOther));
+            checkDatasetSize(dsgBase, 3);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(2L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(1L, c2, "Count (user:other)");
+        };
+        LibTestsSAG.setConfiguration(FKBatchProcessorSAG.COMMIT_BYTES, "1");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKBatchProcessorSAG.COMMIT_BYTES, "0");
+        }
+        // Recorded after the first and second sub-batches; the connector records the last.
+        assertEquals(2, offsets.size());
+    }
+
+    /** Batch loaded with the TDB2 bulk loader, triggered by message size. */
+    @Test
+    void processorSAG_bulkLoad_1() {
+        DatasetGraph dsgBase = DatabaseMgr.createDatasetGraph();
+        DatasetGraphABAC dsgz = ABAC.authzDataset(dsgBase,
+                                                  SysABAC.ALLOW_LABEL,
+                                                  Labels.createLabelsStoreMem(),
+                                                  SysABAC.DENY_LABEL,
+                                                  new AttributesStoreLocal());
+        LibTestsSAG.setConfiguration(FKBatchProcessorSAG.BULK_LOAD_MESSAGE_BYTES, "1");
+        try {
+            FKProcessorSAG proc = new FKProcessorSAG(dsgz, "http://dataset/kafka/knowledge", null);
+            processorBatch(proc, dsgz,
+                           request("""
+                                   PREFIX : <http://example/>
+                                   :s :p "data1" .
+                                   """, WebContent.contentTypeTurtle, attrPermit),
+                           request("""
+                                   <http://example/s> <http://example/p> "data2" .
+                                   """, WebContent.contentTypeNTriples, attrOther));
+        } finally {
+            LibTestsSAG.setConfiguration(FKBatchProcessorSAG.BULK_LOAD_MESSAGE_BYTES, "0");
+        }
+        long count = Txn.calculateRead(dsgBase, ()->dsgBase.getDefaultGraph().size());
+        assertEquals(2L, count);
+        assertFalse(dsgz.labelsStore().isEmpty());
+    }
+
+    /** Message body compressed with gzip. */
+    @Test
+    void processorSAG_load_gzip_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            Map<String, String> headers = Map.of(HttpNames.hContentType, WebContent.contentTypeTurtle,
+                                                 SysABAC.H_SECURITY_LABEL, attrPermit.asString(),
+                                                 IANodeKafka.TF_CONTENT_ENCODING, "gzip");
+            byte[] bytes = gzip("""
+                    PREFIX : <http://example/>
+                    :s :p "data1" .
+                    :s :p "data2" .
+                    """);
+            processorBatch(proc, getDatasetABAC(server), new RequestFK("knowledge", headers, bytes));
+            checkDatasetSize(dsgBase, 2);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(2L, c1, "Count (user:permit)");
+        };
+        runTestProcessorSAGWithAuth(action);
+    }
+
+    /** Message body with an unknown encoding is not loaded. */
+    @Test
+    void processorSAG_load_encoding_bad_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            checkDatasetSize(dsgBase, 0);
+            Map<String, String> headers = Map.of(HttpNames.hContentType, WebContent.contentTypeTurtle,
+                                                 SysABAC.H_SECURITY_LABEL, attrPermit.asString(),
+                                                 IANodeKafka.TF_CONTENT_ENCODING, "compress");
+            LibTestsSAG.withLevel(FusekiKafka.LOG, "FATAL", ()->
+                processorRequest(proc, """
+                        PREFIX : <http://example/>
+                        :s :p "data1" .
+                        """, headers));
+            checkDatasetSize(dsgBase, 0);
+        };
+        runTestProcessorSAGWithAuth(action);
+    }
+
+    /** RDF Thrift and RDF Protobuf, labels from the header and from a labels graph. */
+    @Test
+    void processorSAG_load_binary_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            byte[] thrift = binaryRDF("""
+                    PREFIX authz: <http://ndtp.co.uk/security#>
+                    PREFIX : <http://example/>
+                    :s :p "data1" .
+                    :s :p "data2" .
+                    GRAPH authz:labels {
+                        [ authz:pattern '<http://example/s> <http://example/p> "data1"' ; authz:label "PERMIT" ] .
+                        [ authz:pattern '<http://example/s> <http://example/p> "data2"' ; authz:label "OTHER" ] .
+                    }
+                    """, Lang.RDFTHRIFT);
+            byte[] protobuf = binaryRDF("""
+                    PREFIX : <http://example/>
+                    :s :p "data3" .
+                    """, Lang.RDFPROTO);
+            processorBatch(proc, getDatasetABAC(server),
+                           new RequestFK("knowledge", Map.of(HttpNames.hContentType, WebContent.contentTypeRDFThrift), thrift),
+                           new RequestFK("knowledge", Map.of(HttpNames.hContentType, WebContent.contentTypeRDFProtobuf,
+                                                             SysABAC.H_SECURITY_LABEL, attrPermit.asString()), protobuf));
+            // The labels graph is not data.
+            checkDatasetSize(dsgBase, 3);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(2L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(1L, c2, "Count (user:other)");
+        };
+        runTestProcessorSAGWithAuth(action);
+    }
+
+    private static byte[] binaryRDF(String trig, Lang lang) {
+        DatasetGraph dsg = RDFParser.create().fromString(trig).lang(Lang.TRIG).toDatasetGraph();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFWriter.source(dsg).lang(lang).output(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(String string) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(Bytes.asUTF8bytes(string));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    /** TriG with a labels graph larger than the in-memory threshold. */
+    @Test
+    void processorSAG_load_trig_spill_1() {
+        TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
+            String URL = server.datasetURL(DS_NAME);
+            checkDatasetSize(dsgBase, 0);
+            processorRequest(proc, """
+                    PREFIX authz: <http://ndtp.co.uk/security#>
+                    PREFIX : <http://example/>
+                    :s :p "data1" .
+                    :s :p "data2" .
+                    GRAPH authz:labels {
+                        [ authz:pattern ':s :p "data1"' ; authz:label "PERMIT" ] .
+                        [ authz:pattern ':s :p "data2"' ; authz:label "OTHER" ] .
+                    }
+                    """, WebContent.contentTypeTriG, null);
+            checkDatasetSize(dsgBase, 2);
+            long c1 = count(URL, QUERY_ALL, USER_PERMIT);
+            assertEquals(1L, c1, "Count (user:permit)");
+            long c2 = count(URL, QUERY_ALL, USER_OTHER);
+            assertEquals(1L, c2, "Count (user:other)");
+        };
+        LibTestsSAG.setConfiguration(FKProcessorSAG.LABELS_SPILL_THRESHOLD, "1");
+        try {
+            runTestProcessorSAGWithAuth(action);
+        } finally {
+            LibTestsSAG.setConfiguration(FKProcessorSAG.LABELS_SPILL_THRESHOLD, "250000");
+        }
+    }
+
     @Test
     void processorSAG_patch_1_add2() {
         TestAction action = (FKProcessor proc, FusekiServer server, DatasetGraph dsgBase) -> {
@@ -457,10 +899,13 @@ class TestFKProcessorSAG {
     }
 
     private void checkDatasetSize(DatasetGraph dsg, int expectedCount) {
+        assertEquals(expectedCount, datasetSize(dsg), "Dataset size");
+    }
+
+    private long datasetSize(DatasetGraph dsg) {
         try ( QueryExec qExec = QueryExecDataset.newBuilder().dataset(dsg).query(QUERY_ALL).build() ) {
             RowSet rowSet = qExec.select();
-            long c = RowSetOps.count(rowSet);
-            assertEquals(expectedCount, c, "Dataset size");
+            return RowSetOps.count(rowSet);
         }
     }
 
@@ -491,6 +936,29 @@ class TestFKProcessorSAG {
         assertNotNull(response);
     }
 
+    private static RequestFK request(String body, String contentType, AttributeValue securityLabel) {
+        Map<String, String> headers = (securityLabel == null)
+                                      ? Map.of(HttpNames.hContentType, contentType)
+                                      : Map.of(HttpNames.hContentType, contentType, SysABAC.H_SECURITY_LABEL, securityLabel.asString());
+        return new RequestFK("knowledge", headers, Bytes.asUTF8bytes(body));
+    }
+
+    /** Send requests as one batch, inside the batch transaction, as the Kafka connector does. */
+    private static void processorBatch(FKProcessor proc, DatasetGraph dsg, RequestFK... requests) {
+        processorBatch(new FKBatchProcessorSAG(dsg, (FKProcessorSAG)proc), requests);
+    }
+
+    private static void processorBatch(FKBatchProcessor batchProcessor, RequestFK... requests) {
+        String topic = "knowledge";
+        List<ConsumerRecord<String, RequestFK>> recordsList = new ArrayList<>();
+        long offset = 900;
+        for ( RequestFK request : requests )
+            recordsList.add(new ConsumerRecord<>(topic, 0, offset++, "key", request));
+        TopicPartition partition = new TopicPartition(topic, 0);
+        ConsumerRecords<String, RequestFK> cRecords = new ConsumerRecords<>(Map.of(partition, recordsList));
+        batchProcessor.processBatch(topic, 899, List.of(cRecords));
+    }
+
     private void runTestProcessorSAGWithAuth(TestAction execTestAction) {
         // Setup a DatasetGraphABAC in a Fuseki/SAG with a FKProcessor.
         DatasetGraph dsgBase = DatasetGraphFactory.createTxnMem();
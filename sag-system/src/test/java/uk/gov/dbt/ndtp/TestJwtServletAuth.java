@@ -123,7 +123,8 @@ public class TestJwtServletAuth {
                 new PathExclusion("/$/ping"),
                 new PathExclusion("/$/metrics"),
                 new PathExclusion("/\\$/stats/*"),
-                new PathExclusion("/$/compactall")
+                new PathExclusion("/$/compactall"),
+                new PathExclusion("/$/ready")
         );
         FMod_JwtServletAuth jwtServletAuth = new FMod_JwtServletAuth();
         FusekiServer.Builder builder = SecureAgentGraph.serverBuilder().addServletAttribute(ATTRIBUTE_JWT_VERIFIER, new TestJwtVerifier());
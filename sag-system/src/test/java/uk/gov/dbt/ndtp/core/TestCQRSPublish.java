@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.jena.kafka.JenaKafkaException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+public class TestCQRSPublish {
+
+    private static final List<Header> headers = List.of(CQRS.kafkaHeader("Content-Type", "application/rdf-patch"));
+
+    @Test
+    public void publish_async_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        CompletableFuture<RecordMetadata> first = new CompletableFuture<>();
+        CompletableFuture<RecordMetadata> second = new CompletableFuture<>();
+        CQRS.sendToKafkaAsync(producer, "knowledge", headers, new byte[10], first);
+        CQRS.sendToKafkaAsync(producer, "knowledge", headers, new byte[10], second);
+        // Both sent, neither acknowledged.
+        assertEquals(2, producer.history().size());
+        assertFalse(first.isDone());
+        producer.completeNext();
+        producer.completeNext();
+        assertEquals(0, first.join().offset());
+        assertEquals(1, second.join().offset());
+    }
+
+    @Test
+    public void publish_async_fail_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
+        CQRS.sendToKafkaAsync(producer, "knowledge", headers, new byte[10], published);
+        producer.errorNext(new RuntimeException("No broker"));
+        assertTrue(published.isCompletedExceptionally());
+    }
+
+    @Test
+    public void publish_sync_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        assertEquals(0, CQRS.sendToKafka(producer, "knowledge", headers, new byte[10]));
+    }
+
+    @Test
+    public void publish_sync_fail_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
+        CQRS.sendToKafkaAsync(producer, "knowledge", headers, new byte[10], published);
+        producer.errorNext(new RuntimeException("No broker"));
+        assertThrows(JenaKafkaException.class, ()->CQRS.awaitPublished(null, published));
+    }
+}
@@ -0,0 +1,121 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import uk.gov.dbt.ndtp.LibTestsSAG;
+import org.apache.jena.fuseki.main.FusekiServer;
+import org.apache.jena.http.HttpEnv;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+
+/** CQRS updates through the server: update, patch sent to Kafka, offset returned. */
+public class TestCQRSUpdate {
+
+    private static final String UPDATE = """
+            PREFIX : <http://example/>
+            DELETE { :s :p ?o } INSERT { :s :p "new" } WHERE { :s :p ?o }
+            """;
+
+    @Test
+    public void cqrs_update_writeTxn_1() throws Exception {
+        update(true);
+    }
+
+    @Test
+    public void cqrs_update_readTxn_1() throws Exception {
+        update(false);
+    }
+
+    private static void update(boolean writeTxn) throws IOException, InterruptedException {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        Quad old = SSE.parseQuad("(_ :s :p 'old')");
+        Txn.executeWrite(dsg, ()->dsg.add(old));
+
+        LibTestsSAG.setConfiguration(SPARQL_Update_CQRS.UPDATE_WRITE_TXN, Boolean.toString(writeTxn));
+        FusekiServer server;
+        try {
+            server = FusekiServer.create()
+                    .port(0)
+                    .registerOperation(CQRS.Vocab.operationUpdateCQRS, WebContent.contentTypeSPARQLUpdate,
+                                       CQRS.updateAction("knowledge", producer))
+                    .add("/ds", dsg)
+                    .addEndpoint("/ds", "cqrs", CQRS.Vocab.operationUpdateCQRS)
+                    .build()
+                    .start();
+        } finally {
+            LibTestsSAG.setConfiguration(SPARQL_Update_CQRS.UPDATE_WRITE_TXN, "true");
+        }
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(server.datasetURL("/ds") + "/cqrs"))
+                    .header("Content-Type", WebContent.contentTypeSPARQLUpdate)
+                    .POST(HttpRequest.BodyPublishers.ofString(UPDATE))
+                    .build();
+            HttpResponse<Void> response = HttpEnv.getDftHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+            assertEquals("0", response.headers().firstValue(CQRS.H_KAFKA_OFFSET).orElse(null));
+
+            response = HttpEnv.getDftHttpClient().send(request, HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+            assertEquals("1", response.headers().firstValue(CQRS.H_KAFKA_OFFSET).orElse(null));
+        } finally {
+            server.stop();
+        }
+
+        List<ProducerRecord<String, byte[]>> records = producer.history();
+        assertEquals(2, records.size());
+        assertEquals("knowledge", records.get(0).topic());
+        String patch = new String(records.get(0).value(), StandardCharsets.UTF_8);
+        assertTrue(patch.contains("\"old\""), patch);
+        assertTrue(patch.contains("\"new\""), patch);
+        // The dataset is only changed by the patch read back from Kafka.
+        Txn.executeRead(dsg, ()->{
+            assertTrue(dsg.contains(old));
+            assertFalse(dsg.contains(SSE.parseQuad("(_ :s :p 'new')")));
+        });
+    }
+}
@@ -0,0 +1,141 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+public class TestClaimCheck {
+
+    private static final String DATA = "<http://example/s> <http://example/p> \"data\" .\n";
+
+    private Path dir;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("test-claim-check");
+        Files.writeString(dir.resolve("payload.nt"), DATA, StandardCharsets.UTF_8);
+    }
+
+    @AfterEach
+    public void teardown() {
+        BackupUtils.deleteDirectoryRecursively(dir.toFile());
+    }
+
+    private static RequestFK request(String location, String digest) {
+        Map<String, String> headers = Map.of(HttpNames.hContentType, WebContent.contentTypeNTriples,
+                                             IANodeKafka.TF_PAYLOAD_LOCATION, location,
+                                             IANodeKafka.TF_PAYLOAD_SHA256, digest);
+        return new RequestFK("knowledge", headers, new byte[0]);
+    }
+
+    private static String sha256(String string) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        return HexFormat.of().formatHex(md.digest(string.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void claimCheck_none_1() {
+        RequestFK request = new RequestFK("knowledge", Map.of(HttpNames.hContentType, WebContent.contentTypeNTriples),
+                                          DATA.getBytes(StandardCharsets.UTF_8));
+        InputStream data = new ByteArrayInputStream(request.getBytes());
+        assertSame(data, ClaimCheck.open(request, data));
+    }
+
+    @Test
+    public void claimCheck_open_1() throws Exception {
+        RequestFK request = request("payload.nt", sha256(DATA));
+        try ( InputStream in = ClaimCheck.open(request, dir) ) {
+            assertEquals(DATA, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /** The digest is checked when the end of the file is read. */
+    @Test
+    public void claimCheck_digest_bad_1() throws Exception {
+        RequestFK request = request("payload.nt", sha256("Other data"));
+        assertThrows(RiotException.class, ()->{
+            try ( InputStream in = ClaimCheck.open(request, dir) ) {
+                in.readAllBytes();
+            }
+        });
+    }
+
+    /** A file read to its size, but not to the end of the stream, is checked. */
+    @Test
+    public void claimCheck_digest_bad_2() throws Exception {
+        RequestFK request = request("payload.nt", sha256("Other data"));
+        assertThrows(RiotException.class, ()->{
+            try ( InputStream in = ClaimCheck.open(request, dir) ) {
+                in.readNBytes(DATA.length());
+            }
+        });
+    }
+
+    @Test
+    public void claimCheck_digest_bad_3() throws Exception {
+        RequestFK request = request("payload.nt", "not hex");
+        assertThrows(RiotException.class, ()->ClaimCheck.open(request, dir));
+    }
+
+    @Test
+    public void claimCheck_location_bad_1() throws Exception {
+        Path outside = Files.createTempFile("test-claim-check", ".nt");
+        try {
+            Files.writeString(outside, DATA, StandardCharsets.UTF_8);
+            RequestFK request = request("../" + outside.getFileName(), sha256(DATA));
+            assertThrows(RiotException.class, ()->ClaimCheck.open(request, dir));
+        } finally {
+            Files.deleteIfExists(outside);
+        }
+    }
+
+    @Test
+    public void claimCheck_location_missing_1() throws Exception {
+        RequestFK request = request("missing.nt", sha256(DATA));
+        assertThrows(RiotException.class, ()->ClaimCheck.open(request, dir));
+    }
+}
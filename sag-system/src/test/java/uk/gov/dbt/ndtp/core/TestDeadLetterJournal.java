@@ -0,0 +1,174 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+public class TestDeadLetterJournal {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("test-dead-letters");
+    }
+
+    @AfterEach
+    public void teardown() {
+        BackupUtils.deleteDirectoryRecursively(dir.toFile());
+    }
+
+    private static RequestFK request(String contentType, String body) {
+        return new RequestFK("knowledge", Map.of(HttpNames.hContentType, contentType), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void deadLetters_journal_1() {
+        Path file = dir.resolve("ds.deadletters.jsonl");
+        DeadLetterJournal journal = new DeadLetterJournal(file, null, null);
+        journal.record("id1", request(WebContent.contentTypeTurtle, "Bad data"), 10, "Parse error");
+        journal.record("id2", request(WebContent.contentTypePatch, "Bad patch"), 11, "Bad RDF Patch");
+
+        ArrayNode list = journal.list();
+        assertEquals(2, list.size());
+        assertEquals(10, list.get(0).get("offset").asLong());
+        assertEquals("Parse error", list.get(0).get("error").asText());
+        assertFalse(list.get(0).has("body"));
+
+        journal.markReplayed(0);
+        List<DeadLetterJournal.Entry> pending = journal.pending(null);
+        assertEquals(1, pending.size());
+        assertEquals(1, pending.get(0).seq());
+        assertEquals("Bad patch", new String(pending.get(0).request().getBytes(), StandardCharsets.UTF_8));
+
+        // Reopen: sequence numbers continue.
+        DeadLetterJournal journal2 = new DeadLetterJournal(file, null, null);
+        journal2.record("id3", request(WebContent.contentTypeTurtle, "More bad data"), 12, "Parse error");
+        assertEquals(2, journal2.pending(2L).get(0).seq());
+        assertTrue(journal2.list().get(0).get("replayed").asBoolean());
+    }
+
+    @Test
+    public void deadLetters_producerProperties_1() {
+        Properties consumer = new Properties();
+        consumer.put("bootstrap.servers", "broker:9092");
+        consumer.put("security.protocol", "SASL_SSL");
+        consumer.put("sasl.mechanism", "PLAIN");
+        consumer.put("ssl.truststore.location", "/truststore.jks");
+        consumer.put("group.id", "sag");
+        consumer.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        consumer.put("max.poll.records", "1000");
+        Properties producer = DeadLetterJournal.producerProperties(consumer);
+        assertEquals(4, producer.size());
+        assertEquals("broker:9092", producer.get("bootstrap.servers"));
+        assertEquals("PLAIN", producer.get("sasl.mechanism"));
+        assertFalse(producer.containsKey("group.id"));
+        assertFalse(producer.containsKey("key.deserializer"));
+    }
+
+    @Test
+    public void deadLetters_processor_1() {
+        DeadLetterJournal journal = new DeadLetterJournal(dir.resolve("ds.deadletters.jsonl"), null, null);
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        FKProcessorSAG processor = new FKProcessorSAG(dsg, "/ds", null, journal, null);
+        FKBatchProcessorSAG batchProcessor = new FKBatchProcessorSAG(dsg, processor);
+
+        RequestFK good = request(WebContent.contentTypeNTriples, "<http://example/s> <http://example/p> 'data' .\n");
+        RequestFK bad = request(WebContent.contentTypeNTriples, "<http://example/s> <http://example/p> .\n");
+        Map<RequestFK, Long> offsets = new IdentityHashMap<>();
+        offsets.put(good, 20L);
+        offsets.put(bad, 21L);
+        batchProcessor.replay(List.of(good, bad), offsets);
+
+        Txn.executeRead(dsg, ()->assertEquals(1, dsg.getDefaultGraph().size()));
+        List<DeadLetterJournal.Entry> entries = journal.pending(null);
+        assertEquals(1, entries.size());
+        assertEquals(21L, entries.get(0).offset());
+    }
+
+    private static RequestFK chunk(int index, int count, String body) {
+        return new RequestFK("knowledge", Map.of(HttpNames.hContentType, WebContent.contentTypePatch,
+                                                 IANodeKafka.TF_PATCH_ID, "p1",
+                                                 IANodeKafka.TF_PATCH_CHUNK, Integer.toString(index),
+                                                 IANodeKafka.TF_PATCH_CHUNKS, Integer.toString(count)),
+                             body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** A chunked patch that fails keeps its chunks, so the dead letter, its last chunk, can be replayed. */
+    @Test
+    public void deadLetters_chunkedPatch_1() {
+        DeadLetterJournal journal = new DeadLetterJournal(dir.resolve("ds.deadletters.jsonl"), null, null);
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        Path chunksDir = dir.resolve("chunks");
+        FKProcessorSAG processor = new FKProcessorSAG(dsg, "/ds", null, journal, null, new PatchChunks(chunksDir));
+        FKBatchProcessorSAG batchProcessor = new FKBatchProcessorSAG(dsg, processor);
+
+        RequestFK chunk0 = chunk(0, 2, "TX .\nA <http://example/s> <http://example/p> 'a' .\n");
+        RequestFK chunk1 = chunk(1, 2, "A <http://example/s> <http://example/p> .\nTC .\n");
+        Map<RequestFK, Long> offsets = new IdentityHashMap<>();
+        offsets.put(chunk0, 30L);
+        offsets.put(chunk1, 31L);
+        batchProcessor.replay(List.of(chunk0, chunk1), offsets);
+
+        List<DeadLetterJournal.Entry> entries = journal.pending(null);
+        assertEquals(1, entries.size());
+        assertEquals(31L, entries.get(0).offset());
+        assertTrue(Files.exists(chunksDir.resolve("p1").resolve("0")));
+
+        // Replaying the last chunk rebuilds the whole patch from the kept chunks.
+        DeadLetterJournal.Entry entry = entries.get(0);
+        journal.markReplayed(entry.seq());
+        batchProcessor.replay(List.of(entry.request()), Map.of(entry.request(), entry.offset()));
+        ArrayNode list = journal.list();
+        assertEquals(2, list.size());
+        String error = list.get(1).path("error").asText();
+        assertFalse(error.contains("missing"), error);
+        assertTrue(Files.exists(chunksDir.resolve("p1").resolve("0")));
+    }
+}
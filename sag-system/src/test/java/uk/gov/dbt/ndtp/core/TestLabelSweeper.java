@@ -0,0 +1,98 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import uk.gov.dbt.ndtp.jena.abac.ABAC;
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+import uk.gov.dbt.ndtp.jena.abac.labels.Labels;
+import uk.gov.dbt.ndtp.jena.abac.lib.AttributesStoreLocal;
+import uk.gov.dbt.ndtp.jena.abac.lib.DatasetGraphABAC;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.Test;
+
+public class TestLabelSweeper {
+
+    @Test
+    public void labelSweep_1() {
+        DatasetGraphABAC dsgz = ABAC.authzDataset(DatasetGraphFactory.createTxnMem(),
+                                                  SysABAC.ALLOW_LABEL,
+                                                  Labels.createLabelsStoreMem(),
+                                                  SysABAC.DENY_LABEL,
+                                                  new AttributesStoreLocal());
+        Triple kept = SSE.parseTriple("(:s :p 'kept')");
+        Triple deleted = SSE.parseTriple("(:s :p 'deleted')");
+        Txn.executeWrite(dsgz, ()->{
+            dsgz.getBase().getDefaultGraph().add(kept);
+            dsgz.labelsStore().add(kept, List.of("PERMIT"));
+            dsgz.labelsStore().add(deleted, List.of("PERMIT"));
+        });
+
+        LabelSweeper.Result result = LabelSweeper.sweep(dsgz, "test");
+        assertEquals(2, result.checked());
+        assertEquals(1, result.removed());
+        Txn.executeRead(dsgz, ()->{
+            assertEquals(List.of("PERMIT"), dsgz.labelsStore().labelsForTriples(kept));
+            assertTrue(dsgz.labelsStore().labelsForTriples(deleted).isEmpty());
+        });
+    }
+
+    /** A labelled triple that is only in a named graph is kept. */
+    @Test
+    public void labelSweep_namedGraph_1() {
+        DatasetGraphABAC dsgz = ABAC.authzDataset(DatasetGraphFactory.createTxnMem(),
+                                                  SysABAC.ALLOW_LABEL,
+                                                  Labels.createLabelsStoreMem(),
+                                                  SysABAC.DENY_LABEL,
+                                                  new AttributesStoreLocal());
+        Quad quad = SSE.parseQuad("(:g :s :p 'named')");
+        Triple named = quad.asTriple();
+        Txn.executeWrite(dsgz, ()->{
+            dsgz.getBase().add(quad);
+            dsgz.labelsStore().add(named, List.of("level=secret"));
+        });
+
+        LabelSweeper.Result result = LabelSweeper.sweep(dsgz, "test");
+        assertEquals(1, result.checked());
+        assertEquals(0, result.removed());
+        Txn.executeRead(dsgz, ()->
+            assertEquals(List.of("level=secret"), dsgz.labelsStore().labelsForTriples(named)));
+    }
+
+    @Test
+    public void labelSweep_noLabels_1() {
+        assertNull(LabelSweeper.sweep(DatasetGraphFactory.createTxnMem(), "test"));
+    }
+}
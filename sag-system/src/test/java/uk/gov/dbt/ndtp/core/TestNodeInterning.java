@@ -0,0 +1,70 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.apache.jena.atlas.lib.Bytes;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.junit.jupiter.api.Test;
+
+public class TestNodeInterning {
+
+    private static Triple parseOne(String string) {
+        Graph graph = GraphFactory.createDefaultGraph();
+        StreamRDF dest = StreamRDFLib.graph(graph);
+        FKProcessorSAG.parse("test", dest, new ByteArrayInputStream(Bytes.asUTF8bytes(string)), Lang.TURTLE, "http://base/");
+        List<Triple> triples = graph.find().toList();
+        assertEquals(1, triples.size());
+        return triples.get(0);
+    }
+
+    @Test
+    public void interning_iri_1() {
+        Triple t1 = parseOne("<http://example/s> <http://example/p> 1 .");
+        Triple t2 = parseOne("<http://example/s> <http://example/p> 2 .");
+        assertSame(t1.getSubject(), t2.getSubject());
+        assertSame(t1.getPredicate(), t2.getPredicate());
+    }
+
+    @Test
+    public void interning_bnode_1() {
+        // Blank nodes are scoped to the message.
+        Triple t1 = parseOne("_:a <http://example/p> 1 .");
+        Triple t2 = parseOne("_:a <http://example/p> 1 .");
+        assertNotEquals(t1.getSubject(), t2.getSubject());
+    }
+}
@@ -0,0 +1,118 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jena.atlas.logging.LogCtl;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.kafka.FusekiKafka;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.graph.GraphFactory;
+import org.apache.jena.sparql.util.IsoMatcher;
+import org.junit.jupiter.api.Test;
+
+public class TestParallelLineParser {
+
+    private static String ntriples(int n) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0 ; i < n ; i++ ) {
+            // Blank nodes used across lines, and so across chunks.
+            sb.append("_:b").append(i % 7).append(" <http://example/p> \"").append(i).append("\" .\n");
+            sb.append("<http://example/s").append(i).append("> <http://example/q> _:b").append(i % 7).append(" .\n");
+        }
+        return sb.toString();
+    }
+
+    private static InputStream input(String string) {
+        return new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void parallelParse_ntriples_1() {
+        String data = ntriples(500);
+        ParallelLineParser parser = new ParallelLineParser(4, 100);
+        Graph graph = GraphFactory.createDefaultGraph();
+        parser.parse(StreamRDFLib.graph(graph), input(data), Lang.NTRIPLES, "http://base/");
+
+        Graph expected = RDFParser.fromString(data, Lang.NTRIPLES).toGraph();
+        assertEquals(expected.size(), graph.size());
+        // Same blank nodes across chunks.
+        long bnodes = graph.find().mapWith(t -> t.getSubject()).filterKeep(Node::isBlank).toSet().size();
+        assertEquals(7, bnodes);
+        assertTrue(IsoMatcher.isomorphic(expected, graph));
+    }
+
+    @Test
+    public void parallelParse_nquads_1() {
+        String data = """
+                <http://example/s> <http://example/p> "1" <http://example/g1> .
+                <http://example/s> <http://example/p> "2" .
+                _:b <http://example/p> "3" <http://example/g2> .
+                <http://example/s> <http://example/q> _:b <http://example/g2> .
+                """;
+        ParallelLineParser parser = new ParallelLineParser(2, 20);
+        DatasetGraph dsg = DatasetGraphFactory.createTxnMem();
+        parser.parse(StreamRDFLib.dataset(dsg), input(data), Lang.NQUADS, "http://base/");
+        DatasetGraph expected = RDFParser.fromString(data, Lang.NQUADS).toDatasetGraph();
+        assertTrue(IsoMatcher.isomorphic(expected, dsg));
+    }
+
+    /** Long lines, longer than the chunk size. */
+    @Test
+    public void parallelParse_longLines_1() {
+        String data = ntriples(50);
+        ParallelLineParser parser = new ParallelLineParser(3, 5);
+        Graph graph = GraphFactory.createDefaultGraph();
+        parser.parse(StreamRDFLib.graph(graph), input(data), Lang.NTRIPLES, "http://base/");
+        assertEquals(100, graph.size());
+    }
+
+    /** Output before a syntax error is sent on, then the error is thrown. */
+    @Test
+    public void parallelParse_bad_1() {
+        String data = ntriples(100) + "JUNK\n" + ntriples(100);
+        ParallelLineParser parser = new ParallelLineParser(4, 100);
+        Graph graph = GraphFactory.createDefaultGraph();
+        StreamRDF dest = StreamRDFLib.graph(graph);
+        LogCtl.withLevel(FusekiKafka.LOG, "FATAL", ()->
+            assertThrows(RiotException.class, ()->parser.parse(dest, input(data), Lang.NTRIPLES, "http://base/")));
+        assertEquals(200, graph.size());
+    }
+}
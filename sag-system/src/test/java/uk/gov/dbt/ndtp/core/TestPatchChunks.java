@@ -0,0 +1,177 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.RiotException;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+public class TestPatchChunks {
+
+    private Path dir;
+
+    @BeforeEach
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("patch-chunks-test");
+    }
+
+    @AfterEach
+    public void after() {
+        BackupUtils.deleteDirectoryRecursively(dir.toFile());
+    }
+
+    private static String patch(int n) {
+        StringBuilder sb = new StringBuilder("TX .\n");
+        for ( int i = 0 ; i < n ; i++ )
+            sb.append("A <http://example/s> <http://example/p> ").append(i).append(" .\n");
+        sb.append("TC .\n");
+        return sb.toString();
+    }
+
+    private static RequestFK request(ProducerRecord<String, byte[]> record) {
+        Map<String, String> headers = new HashMap<>();
+        for ( Header header : record.headers() )
+            headers.put(header.key(), new String(header.value(), StandardCharsets.UTF_8));
+        return new RequestFK(record.topic(), headers, record.value());
+    }
+
+    private static RequestFK chunk(String patchId, int index, int count, String body) {
+        return new RequestFK("knowledge", Map.of(IANodeKafka.TF_PATCH_ID, patchId,
+                                                 IANodeKafka.TF_PATCH_CHUNK, Integer.toString(index),
+                                                 IANodeKafka.TF_PATCH_CHUNKS, Integer.toString(count)),
+                             body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void patchBuffer_spill_1() throws IOException {
+        PatchBuffer buffer = new PatchBuffer(100);
+        buffer.write(patch(2).getBytes(StandardCharsets.UTF_8));
+        assertFalse(buffer.isSpilled());
+        buffer.write(patch(20).getBytes(StandardCharsets.UTF_8));
+        buffer.flush();
+        assertTrue(buffer.isSpilled());
+        try ( InputStream in = buffer.open() ) {
+            assertEquals(patch(2) + patch(20), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        buffer.delete();
+    }
+
+    /** Send in chunks, then collect the chunks to give the whole patch. */
+    @Test
+    public void chunks_roundTrip_1() throws IOException {
+        String text = patch(100);
+        PatchBuffer buffer = new PatchBuffer(500);
+        buffer.write(text.getBytes(StandardCharsets.UTF_8));
+        buffer.flush();
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
+        CQRS.sendChunked(producer, "knowledge", CQRS.patchHeaders(null), buffer, 500, published);
+        buffer.delete();
+
+        List<ProducerRecord<String, byte[]>> records = producer.history();
+        int count = (text.length() + 499) / 500;
+        assertEquals(count, records.size());
+        assertEquals(count - 1, published.join().offset());
+
+        PatchChunks chunks = new PatchChunks(dir);
+        for ( int i = 0 ; i < count - 1 ; i++ )
+            assertNull(chunks.add(request(records.get(i))));
+        // A chunk delivered again.
+        assertNull(chunks.add(request(records.get(0))));
+        try ( InputStream in = chunks.add(request(records.get(count - 1))) ) {
+            assertEquals(text, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        chunks.finished(true);
+        try ( var files = Files.list(dir) ) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void chunks_missing_1() {
+        PatchChunks chunks = new PatchChunks(dir);
+        assertNull(chunks.add(chunk("p1", 0, 3, "TX .\n")));
+        assertThrows(RiotException.class, ()->chunks.add(chunk("p1", 2, 3, "TC .\n")));
+    }
+
+    @Test
+    public void chunks_aborted_1() throws IOException {
+        PatchChunks chunks = new PatchChunks(dir);
+        assertNull(chunks.add(chunk("p2", 0, 2, "TX .\n")));
+        try ( InputStream in = chunks.add(chunk("p2", 1, 2, "TC .\n")) ) {
+            assertEquals("TX .\nTC .\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        // Kept for the batch to be applied again.
+        chunks.finished(false);
+        assertTrue(Files.exists(dir.resolve("p2").resolve("0")));
+    }
+
+    @Test
+    public void chunks_expire_1() throws IOException {
+        PatchChunks chunks = new PatchChunks(dir, 1000);
+        assertNull(chunks.add(chunk("p4", 0, 2, "TX .\n")));
+        assertNull(chunks.add(chunk("p5", 0, 2, "TX .\n")));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(dir.resolve("p4"), FileTime.fromMillis(now - 2000));
+        chunks.expire(now);
+        assertFalse(Files.exists(dir.resolve("p4")));
+        assertTrue(Files.exists(dir.resolve("p5").resolve("0")));
+    }
+
+    @Test
+    public void chunks_bad_1() {
+        PatchChunks chunks = new PatchChunks(dir);
+        assertThrows(RiotException.class, ()->chunks.add(chunk("../p", 0, 1, "TX .\n")));
+        assertThrows(RiotException.class, ()->chunks.add(chunk("p3", 1, 1, "TX .\n")));
+    }
+}
@@ -0,0 +1,130 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+
+public class TestPatchGroupCommit {
+
+    private static byte[] patch(int i) {
+        return ("TX .\nA <http://example/s> <http://example/p> " + i + " .\nTC .\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String body(ProducerRecord<String, byte[]> record) {
+        return new String(record.value(), StandardCharsets.UTF_8);
+    }
+
+    private static String label(ProducerRecord<String, byte[]> record) {
+        Header header = record.headers().lastHeader(SysABAC.H_SECURITY_LABEL);
+        return header == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void groupCommit_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        PatchGroupCommit groupCommit = new PatchGroupCommit("knowledge", producer, 60_000, 1024 * 1024);
+        CompletableFuture<RecordMetadata> f1 = new CompletableFuture<>();
+        CompletableFuture<RecordMetadata> f2 = new CompletableFuture<>();
+        CompletableFuture<RecordMetadata> f3 = new CompletableFuture<>();
+        CompletableFuture<RecordMetadata> f4 = new CompletableFuture<>();
+        groupCommit.add(null, patch(1), f1);
+        groupCommit.add(null, patch(2), f2);
+        groupCommit.add("level=1", patch(3), f3);
+        groupCommit.add(null, patch(4), f4);
+        assertTrue(producer.history().isEmpty());
+        assertFalse(f1.isDone());
+        groupCommit.flush();
+
+        // Runs of the same label, in order.
+        List<ProducerRecord<String, byte[]>> records = producer.history();
+        assertEquals(3, records.size());
+        assertEquals(new String(patch(1), StandardCharsets.UTF_8) + new String(patch(2), StandardCharsets.UTF_8), body(records.get(0)));
+        assertNull(label(records.get(0)));
+        assertEquals("level=1", label(records.get(1)));
+        assertNull(label(records.get(2)));
+
+        assertEquals(0, f1.join().offset());
+        assertEquals(0, f2.join().offset());
+        assertEquals(1, f3.join().offset());
+        assertEquals(2, f4.join().offset());
+    }
+
+    @Test
+    public void groupCommit_maxBytes_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        int size = patch(1).length;
+        PatchGroupCommit groupCommit = new PatchGroupCommit("knowledge", producer, 60_000, 2 * size);
+        for ( int i = 0 ; i < 5 ; i++ )
+            groupCommit.add(null, patch(i), new CompletableFuture<>());
+        // Sent when the limit is reached.
+        assertEquals(1, producer.history().size());
+        groupCommit.flush();
+        assertEquals(3, producer.history().size());
+        assertEquals(size, producer.history().get(2).value().length);
+    }
+
+    @Test
+    public void groupCommit_window_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        PatchGroupCommit groupCommit = new PatchGroupCommit("knowledge", producer, 10, 1024 * 1024);
+        CompletableFuture<RecordMetadata> published = new CompletableFuture<>();
+        groupCommit.add(null, patch(1), published);
+        // Sent by the timer.
+        assertEquals(0, published.join().offset());
+    }
+
+    @Test
+    public void groupCommit_fail_1() {
+        MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        PatchGroupCommit groupCommit = new PatchGroupCommit("knowledge", producer, 60_000, 1024 * 1024);
+        CompletableFuture<RecordMetadata> f1 = new CompletableFuture<>();
+        CompletableFuture<RecordMetadata> f2 = new CompletableFuture<>();
+        groupCommit.add(null, patch(1), f1);
+        groupCommit.add(null, patch(2), f2);
+        groupCommit.flush();
+        producer.errorNext(new RuntimeException("No broker"));
+        // Each update in the record fails.
+        assertTrue(f1.isCompletedExceptionally());
+        assertTrue(f2.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,81 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import uk.gov.dbt.ndtp.jena.abac.labels.Labels;
+import uk.gov.dbt.ndtp.jena.abac.labels.LabelsStore;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.sse.SSE;
+import org.junit.jupiter.api.Test;
+
+public class TestPendingLabels {
+
+    private static final Triple triple = SSE.parseTriple("(:s :p :o)");
+    private static final List<String> labelsA = List.of("level=1");
+    private static final List<String> labelsB = List.of("level=2");
+
+    /** The last assignment wins, even if it repeats an earlier one. */
+    @Test
+    public void pendingLabels_lastWins_1() {
+        PendingLabels pending = new PendingLabels();
+        pending.add(triple, labelsA);
+        pending.add(triple, labelsB);
+        pending.add(triple, labelsA);
+        assertEquals(3, pending.size());
+        LabelsStore store = Labels.createLabelsStoreMem();
+        pending.flush(store);
+        assertEquals(labelsA, store.labelsForTriples(triple));
+    }
+
+    /** Across messages: the labels of a later message are written after the batch's. */
+    @Test
+    public void pendingLabels_lastWins_2() {
+        PendingLabels batch = new PendingLabels();
+        batch.add(triple, labelsA);
+        PendingLabels message = new PendingLabels();
+        message.add(triple, labelsB);
+        batch.addAll(message);
+        message.add(triple, labelsA);
+        batch.addAll(message);
+        LabelsStore store = Labels.createLabelsStoreMem();
+        batch.flush(store);
+        assertEquals(labelsA, store.labelsForTriples(triple));
+    }
+
+    /** An assignment repeating the one in effect is not recorded. */
+    @Test
+    public void pendingLabels_repeat_1() {
+        PendingLabels pending = new PendingLabels();
+        pending.add(triple, labelsA);
+        pending.add(triple, labelsA);
+        assertEquals(1, pending.size());
+    }
+}
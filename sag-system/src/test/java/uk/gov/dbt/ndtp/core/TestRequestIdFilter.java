@@ -0,0 +1,119 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.backup.utils.BackupUtils;
+
+public class TestRequestIdFilter {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("test-request-ids");
+    }
+
+    @AfterEach
+    public void teardown() {
+        BackupUtils.deleteDirectoryRecursively(dir.toFile());
+    }
+
+    @Test
+    public void requestIds_window_1() {
+        RequestIdFilter filter = new RequestIdFilter(2, 0, null);
+        assertFalse(filter.isDuplicate("id1"));
+        // Within the batch.
+        assertTrue(filter.isDuplicate("id1"));
+        assertFalse(filter.isDuplicate("id2"));
+        assertFalse(filter.isDuplicate("id3"));
+        filter.commit();
+        assertEquals(2, filter.size());
+        // id1 has dropped out of the window.
+        assertFalse(filter.isDuplicate("id1"));
+        assertTrue(filter.isDuplicate("id3"));
+    }
+
+    @Test
+    public void requestIds_abort_1() {
+        RequestIdFilter filter = new RequestIdFilter(10, 0, null);
+        assertFalse(filter.isDuplicate("id1"));
+        filter.abort();
+        assertFalse(filter.isDuplicate("id1"));
+        filter.commit();
+        assertTrue(filter.isDuplicate("id1"));
+    }
+
+    @Test
+    public void requestIds_subBatch_1() {
+        RequestIdFilter filter = new RequestIdFilter(10, 0, null);
+        assertFalse(filter.isDuplicate("id1"));
+        assertFalse(filter.isDuplicate("id2"));
+        // The sub-batch with id1 commits, the one with id2 fails.
+        filter.commit(List.of("id1"));
+        assertEquals(1, filter.size());
+        filter.abort();
+        assertTrue(filter.isDuplicate("id1"));
+        assertFalse(filter.isDuplicate("id2"));
+    }
+
+    @Test
+    public void requestIds_history_1() {
+        RequestIdFilter filter = new RequestIdFilter(1, 100, null);
+        assertFalse(filter.isDuplicate("id1"));
+        assertFalse(filter.isDuplicate("id2"));
+        filter.commit();
+        // Out of the exact window, still in the Bloom filter.
+        assertTrue(filter.isDuplicate("id1"));
+        assertFalse(filter.isDuplicate("id3"));
+    }
+
+    @Test
+    public void requestIds_persist_1() {
+        Path file = dir.resolve("state.requestids");
+        RequestIdFilter filter = new RequestIdFilter(10, 100, file);
+        assertFalse(filter.isDuplicate("id1"));
+        filter.commit();
+        filter.save();
+        assertTrue(Files.exists(file));
+
+        RequestIdFilter filter2 = new RequestIdFilter(10, 100, file);
+        assertEquals(1, filter2.size());
+        assertTrue(filter2.isDuplicate("id1"));
+        assertFalse(filter2.isDuplicate("id2"));
+    }
+}
@@ -0,0 +1,56 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TestSecurityLabelCache {
+
+    @Test
+    public void labelCache_hit_1() {
+        SecurityLabelCache cache = new SecurityLabelCache(10);
+        List<String> labels1 = cache.parse("PERMIT");
+        List<String> labels2 = cache.parse("PERMIT");
+        assertEquals(List.of("PERMIT"), labels1);
+        assertSame(labels1, labels2);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void labelCache_disabled_1() {
+        SecurityLabelCache cache = new SecurityLabelCache(0);
+        cache.parse("PERMIT");
+        cache.parse("PERMIT");
+        assertEquals(0, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+}
@@ -0,0 +1,146 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.sse.SSE;
+import org.apache.jena.sparql.util.IsoMatcher;
+import org.apache.jena.update.UpdateAction;
+import org.junit.jupiter.api.Test;
+
+public class TestSpillingBufferingDatasetGraph {
+
+    private static final String DATA = """
+            PREFIX : <http://example/>
+            :s1 :p 1 .
+            :s2 :p 2 .
+            :s3 :p 3 .
+            GRAPH :g { :s1 :q 10 . :s2 :q 20 . }
+            """;
+
+    // Several operations, each reading the changes of the ones before.
+    private static final String UPDATE = """
+            PREFIX : <http://example/>
+            DELETE { ?s :p ?o } INSERT { ?s :p ?o2 } WHERE { ?s :p ?o BIND(?o + 100 AS ?o2) } ;
+            INSERT { GRAPH :g2 { ?s :r ?o } } WHERE { ?s :p ?o FILTER(?o > 100) } ;
+            DELETE WHERE { GRAPH :g { :s1 :q ?x } } ;
+            INSERT DATA { :s4 :p 4 } ;
+            DELETE DATA { :s4 :p 4 } ;
+            """;
+
+    private static DatasetGraph data() {
+        return RDFParser.fromString(DATA, Lang.TRIG).toDatasetGraph();
+    }
+
+    private static void check(long threshold, boolean spills) {
+        DatasetGraph base = data();
+        SpillingBufferingDatasetGraph buffer = new SpillingBufferingDatasetGraph(base, threshold);
+        try {
+            UpdateAction.parseExecute(UPDATE, buffer);
+            assertEquals(spills, buffer.isSpilled());
+
+            DatasetGraph expected = data();
+            UpdateAction.parseExecute(UPDATE, expected);
+            DatasetGraph actual = DatasetGraphFactory.create();
+            buffer.find().forEachRemaining(actual::add);
+            assertTrue(IsoMatcher.isomorphic(expected, actual));
+            // 3 changed values and the new graph; 3 values and one :q deleted.
+            assertEquals(6, buffer.addedCount());
+            assertEquals(4, buffer.deletedCount());
+            assertTrue(buffer.containsGraph(SSE.parseNode(":g2")));
+            // Base unchanged.
+            assertTrue(IsoMatcher.isomorphic(data(), base));
+        } finally {
+            buffer.close();
+        }
+        assertFalse(buffer.isSpilled());
+    }
+
+    @Test
+    public void buffering_memory_1() {
+        check(0, false);
+    }
+
+    @Test
+    public void buffering_spill_1() {
+        check(2, true);
+    }
+
+    /** CLEAR of a graph larger than a delete batch. */
+    @Test
+    public void buffering_clear_1() {
+        DatasetGraph base = DatasetGraphFactory.create();
+        Node g = SSE.parseNode(":g");
+        for ( int i = 0 ; i < 25_000 ; i++ )
+            base.add(g, SSE.parseNode(":s"), SSE.parseNode(":p"), NodeFactory.createLiteralString(Integer.toString(i)));
+        base.add(SSE.parseQuad("(:g2 :s :p :o)"));
+        SpillingBufferingDatasetGraph buffer = new SpillingBufferingDatasetGraph(base, 1000);
+        try {
+            UpdateAction.parseExecute("PREFIX : <http://example/> CLEAR GRAPH :g", buffer);
+            assertTrue(buffer.isSpilled());
+            assertEquals(25_000, buffer.deletedCount());
+            assertFalse(buffer.contains(g, Node.ANY, Node.ANY, Node.ANY));
+            assertTrue(buffer.contains(SSE.parseQuad("(:g2 :s :p :o)")));
+            assertEquals(25_001, Iter.count(base.find()));
+        } finally {
+            buffer.close();
+        }
+    }
+
+    /** CLEAR of a graph with quads of the base dataset and quads added by the update. */
+    @Test
+    public void buffering_clear_2() {
+        DatasetGraph base = DatasetGraphFactory.create();
+        Node g = SSE.parseNode(":g");
+        for ( int i = 0 ; i < 25_000 ; i++ )
+            base.add(g, SSE.parseNode(":s"), SSE.parseNode(":p"), NodeFactory.createLiteralString(Integer.toString(i)));
+        SpillingBufferingDatasetGraph buffer = new SpillingBufferingDatasetGraph(base, 1000);
+        try {
+            for ( int i = 0 ; i < 15_000 ; i++ )
+                buffer.add(g, SSE.parseNode(":s"), SSE.parseNode(":q"), NodeFactory.createLiteralString(Integer.toString(i)));
+            buffer.delete(g, SSE.parseNode(":s"), SSE.parseNode(":p"), NodeFactory.createLiteralString("0"));
+            assertEquals(15_000, buffer.addedCount());
+            UpdateAction.parseExecute("PREFIX : <http://example/> CLEAR GRAPH :g", buffer);
+            assertEquals(0, buffer.addedCount());
+            assertEquals(25_000, buffer.deletedCount());
+            assertTrue(buffer.isEmpty());
+            assertEquals(25_000, Iter.count(base.find()));
+        } finally {
+            buffer.close();
+        }
+    }
+}
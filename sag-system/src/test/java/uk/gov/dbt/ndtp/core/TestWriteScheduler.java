@@ -0,0 +1,95 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class TestWriteScheduler {
+
+    @Test
+    public void topicWeights_parse_1() {
+        Map<String, Double> weights = WriteScheduler.parseWeights("urgent=10, bulk=0.5");
+        assertEquals(Map.of("urgent", 10.0, "bulk", 0.5), weights);
+        assertEquals(Map.of(), WriteScheduler.parseWeights(null));
+    }
+
+    @Test
+    public void topicWeights_parse_bad_1() {
+        assertThrows(IllegalArgumentException.class, ()->WriteScheduler.parseWeights("urgent"));
+        assertThrows(IllegalArgumentException.class, ()->WriteScheduler.parseWeights("urgent=0"));
+    }
+
+    /** Waiting lanes: the higher weight goes first. */
+    @Test
+    public void writeScheduler_order_1() throws Exception {
+        WriteScheduler scheduler = new WriteScheduler(Map.of("urgent", 10.0));
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = new Thread(()->scheduler.execute("bulk", 100, ()->{
+            holding.countDown();
+            await(release);
+            return order.add("bulk-1");
+        }));
+        holder.start();
+        holding.await();
+
+        Thread bulk = new Thread(()->scheduler.execute("bulk", 100, ()->order.add("bulk-2")));
+        Thread urgent = new Thread(()->scheduler.execute("urgent", 100, ()->order.add("urgent")));
+        bulk.start();
+        urgent.start();
+        waitUntilBlocked(bulk);
+        waitUntilBlocked(urgent);
+
+        release.countDown();
+        holder.join();
+        bulk.join();
+        urgent.join();
+        assertEquals(List.of("bulk-1", "urgent", "bulk-2"), order);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+        while ( thread.getState() != Thread.State.WAITING )
+            Thread.sleep(5);
+    }
+}
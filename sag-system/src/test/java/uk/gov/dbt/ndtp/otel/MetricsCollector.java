@@ -90,6 +90,12 @@ public class MetricsCollector implements MetricExporter {
                                       .put(attributesForStorage(data.getAttributes()), data.getValue());
                     }
                     break;
+                case LONG_GAUGE:
+                    for (LongPointData data : metric.getLongGaugeData().getPoints()) {
+                        recordedValues.computeIfAbsent(metric.getName(), n -> new HashMap<>())
+                                      .put(attributesForStorage(data.getAttributes()), (double) data.getValue());
+                    }
+                    break;
                 case LONG_SUM:
                     for (LongPointData data : metric.getLongSumData().getPoints()) {
                         recordedValues.computeIfAbsent(metric.getName(), n -> new HashMap<>())
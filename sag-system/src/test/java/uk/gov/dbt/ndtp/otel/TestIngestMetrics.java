@@ -0,0 +1,122 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.otel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.riot.web.HttpNames;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+
+@SuppressWarnings("deprecation")
+class TestIngestMetrics {
+
+    @BeforeEach
+    void setup() {
+        TestUtils.enableMetricsCapture();
+    }
+
+    @AfterEach
+    void teardown() {
+        TestUtils.disableMetricsCapture();
+    }
+
+    private static Attributes messageAttributes(String contentType, String labels) {
+        return Attributes.of(SemanticAttributes.DB_NAME, "/ds", IngestMetrics.KAFKA_TOPIC, "knowledge",
+                             IngestMetrics.CONTENT_TYPE, contentType, IngestMetrics.LABELS, labels);
+    }
+
+    @Test
+    void ingest_messages() {
+        IngestMetrics metrics = new IngestMetrics("/ds");
+        RequestFK labelled = new RequestFK("knowledge",
+                                           Map.of(HttpNames.hContentType, WebContent.contentTypeTurtle + "; charset=utf-8",
+                                                  SysABAC.H_SECURITY_LABEL, "level=1"),
+                                           new byte[10]);
+        RequestFK unlabelled = new RequestFK("knowledge", Map.of(HttpNames.hContentType, WebContent.contentTypeTurtle),
+                                             new byte[20]);
+        metrics.message(labelled, 10, 1_000_000, 5, 0, 0);
+        metrics.message(labelled, 10, 1_000_000, 7, 2, 0);
+        metrics.message(unlabelled, 20, 1_000_000, 3, 0, 0);
+        metrics.failure(unlabelled);
+
+        Attributes attrLabelled = messageAttributes(Lang.TURTLE.getName(), IngestMetrics.LABELLED);
+        Attributes attrUnlabelled = messageAttributes(Lang.TURTLE.getName(), IngestMetrics.UNLABELLED);
+        assertEquals(12.0, TestUtils.getReportedMetric("secureagent.graph.kafka.triples", attrLabelled));
+        assertEquals(2.0, TestUtils.getReportedMetric("secureagent.graph.kafka.quads", attrLabelled));
+        assertEquals(20.0, TestUtils.getReportedMetric("secureagent.graph.kafka.bytes", attrLabelled));
+        assertEquals(2.0, TestUtils.getReportedMetric("secureagent.graph.kafka.message.duration.count", attrLabelled));
+        assertEquals(3.0, TestUtils.getReportedMetric("secureagent.graph.kafka.triples", attrUnlabelled));
+        assertEquals(1.0, TestUtils.getReportedMetric("secureagent.graph.kafka.failures", attrUnlabelled));
+    }
+
+    @Test
+    void ingest_contentType() {
+        assertEquals(Lang.TURTLE.getName(), IngestMetrics.contentTypeName("TEXT/TURTLE; charset=utf-8"));
+        assertEquals(Lang.TURTLE.getName(), IngestMetrics.contentTypeName("application/x-turtle"));
+        assertEquals(IngestMetrics.PATCH, IngestMetrics.contentTypeName(WebContent.contentTypePatch));
+        assertEquals(IngestMetrics.NO_CONTENT_TYPE, IngestMetrics.contentTypeName(null));
+        assertEquals(IngestMetrics.OTHER_CONTENT_TYPE, IngestMetrics.contentTypeName("application/x-unique-12345"));
+        assertEquals(IngestMetrics.OTHER_CONTENT_TYPE, IngestMetrics.contentTypeName(";;"));
+    }
+
+    @Test
+    void ingest_batches() {
+        IngestMetrics metrics = new IngestMetrics("/ds");
+        metrics.batch("knowledge", 100, 2_000_000_000L);
+        metrics.batch("knowledge", 50, 1_000_000_000L);
+        metrics.labelWrites(30);
+        metrics.consumerLag("knowledge", 1234);
+
+        Attributes attributes = Attributes.of(SemanticAttributes.DB_NAME, "/ds", IngestMetrics.KAFKA_TOPIC, "knowledge");
+        assertEquals(150.0, TestUtils.getReportedMetric("secureagent.graph.kafka.batch.size", attributes));
+        assertEquals(2.0, TestUtils.getReportedMetric("secureagent.graph.kafka.batch.size.count", attributes));
+        assertEquals(3.0, TestUtils.getReportedMetric("secureagent.graph.kafka.batch.duration", attributes), 0.001);
+        assertEquals(1234.0, TestUtils.getReportedMetric("secureagent.graph.kafka.consumer.lag", attributes));
+        assertEquals(30.0, TestUtils.getReportedMetric("secureagent.graph.kafka.labels.writes",
+                                                       Attributes.of(SemanticAttributes.DB_NAME, "/ds")));
+    }
+
+    @Test
+    void ingest_offsets() {
+        IngestMetrics metrics = new IngestMetrics("/ds2");
+        metrics.offsets("knowledge", 500, 199);
+
+        Attributes attributes = Attributes.of(SemanticAttributes.DB_NAME, "/ds2", IngestMetrics.KAFKA_TOPIC, "knowledge");
+        assertEquals(500.0, TestUtils.getReportedMetric("secureagent.graph.kafka.offset.end", attributes));
+        assertEquals(199.0, TestUtils.getReportedMetric("secureagent.graph.kafka.offset.applied", attributes));
+        assertEquals(300.0, TestUtils.getReportedMetric("secureagent.graph.kafka.applied.lag", attributes));
+    }
+}
@@ -0,0 +1,162 @@
+// SPDX-License-Identifier: Apache-2.0
+// Originally developed by Telicent Ltd.; subsequently adapted, enhanced, and maintained by the National Digital Twin Programme.
+
+/*
+ *  Copyright (c) Telicent Ltd.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+/*
+ *  Modifications made by the National Digital Twin Programme (NDTP)
+ *  © Crown Copyright 2025. This work has been developed by the National Digital Twin Programme
+ *  and is legally attributed to the Department for Business and Trade (UK) as the governing entity.
+ */
+
+package uk.gov.dbt.ndtp.platform.play;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.gov.dbt.ndtp.core.FKBatchProcessorSAG;
+import uk.gov.dbt.ndtp.core.FKProcessorSAG;
+import uk.gov.dbt.ndtp.jena.abac.ABAC;
+import uk.gov.dbt.ndtp.jena.abac.SysABAC;
+import uk.gov.dbt.ndtp.jena.abac.lib.AttributesStoreLocal;
+import uk.gov.dbt.ndtp.jena.abac.lib.DatasetGraphABAC;
+import uk.gov.dbt.ndtp.jena.abac.labels.Labels;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.fuseki.system.FusekiLogging;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.kafka.RequestFK;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFWriter;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.web.HttpNames;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sys.JenaSystem;
+import org.apache.jena.system.Txn;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Compare ingest of the same data through {@link FKProcessorSAG} when it is
+ * sent as N-Triples, TriG, RDF Thrift and RDF Protobuf, with the labels in the
+ * {@code Security-Label} header or in a labels graph.
+ * <p>
+ * Run as a Java program; this is not part of the test suite.
+ * Arguments (optional): number of messages, triples per message, rounds.
+ */
+public class IngestFormatsBenchmark {
+
+    static { FusekiLogging.setLogging(); }
+
+    private static final String TOPIC = "bench";
+    private static final String AUTHZ = "http://ndtp.co.uk/security#";
+    private static final Node LABELS_GRAPH = NodeFactory.createURI(AUTHZ + "labels");
+    private static final Node PATTERN = NodeFactory.createURI(AUTHZ + "pattern");
+    private static final Node LABEL = NodeFactory.createURI(AUTHZ + "label");
+    private static final String LABEL_VALUE = "PERMIT";
+
+    public static void main(String... args) {
+        JenaSystem.init();
+        int messages = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int triplesPerMessage = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        List<DatasetGraph> data = new ArrayList<>();
+        for ( int i = 0 ; i < messages ; i++ )
+            data.add(message(i, triplesPerMessage));
+        long triples = (long)messages * triplesPerMessage;
+
+        System.out.printf("%d messages, %d triples, best of %d rounds%n", messages, triples, rounds);
+        run("N-Triples, header label",    Lang.NTRIPLES,  false, data, triples, rounds);
+        run("TriG, header label",         Lang.TRIG,      false, data, triples, rounds);
+        run("TriG, labels graph",         Lang.TRIG,      true,  data, triples, rounds);
+        run("RDF Thrift, header label",   Lang.RDFTHRIFT, false, data, triples, rounds);
+        run("RDF Thrift, labels graph",   Lang.RDFTHRIFT, true,  data, triples, rounds);
+        run("RDF Protobuf, header label", Lang.RDFPROTO,  false, data, triples, rounds);
+        run("RDF Protobuf, labels graph", Lang.RDFPROTO,  true,  data, triples, rounds);
+    }
+
+    private static void run(String name, Lang lang, boolean labelsGraph, List<DatasetGraph> data, long triples, int rounds) {
+        List<RequestFK> requests = data.stream().map(dsg -> request(dsg, lang, labelsGraph)).toList();
+        long bytes = requests.stream().mapToLong(RequestFK::getByteCount).sum();
+        long best = Long.MAX_VALUE;
+        for ( int round = 0 ; round < rounds ; round++ ) {
+            DatasetGraphABAC dsgz = ABAC.authzDataset(DatasetGraphFactory.createTxnMem(),
+                                                      SysABAC.ALLOW_LABEL,
+                                                      Labels.createLabelsStoreMem(),
+                                                      SysABAC.DENY_LABEL,
+                                                      new AttributesStoreLocal());
+            FKProcessorSAG processor = new FKProcessorSAG(dsgz, "http://dataset/kafka/" + TOPIC, null);
+            FKBatchProcessorSAG batchProcessor = new FKBatchProcessorSAG(dsgz, processor);
+            long start = System.nanoTime();
+            batchProcessor.processBatch(TOPIC, -1, List.of(consumerRecords(requests)));
+            long elapsed = System.nanoTime() - start;
+            DatasetGraph base = dsgz.getBase();
+            long loaded = Txn.calculateRead(base, () -> Iter.count(base.find()));
+            if ( loaded != triples )
+                throw new IllegalStateException(name + ": loaded " + loaded + ", expected " + triples);
+            best = Math.min(best, elapsed);
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%-28s %,14d bytes %9.3f s %,14.0f triples/s%n", name, bytes, seconds, triples / seconds);
+    }
+
+    /** Data for one message, with a labels graph giving each triple a label. */
+    private static DatasetGraph message(int idx, int size) {
+        DatasetGraph dsg = DatasetGraphFactory.createGeneral();
+        dsg.prefixes().add("", "http://example/");
+        dsg.prefixes().add("authz", AUTHZ);
+        Node p = NodeFactory.createURI("http://example/p");
+        for ( int j = 0 ; j < size ; j++ ) {
+            Node s = NodeFactory.createURI("http://example/s" + idx + "_" + j);
+            Node o = NodeFactory.createLiteralString("value " + j);
+            dsg.add(Quad.defaultGraphIRI, s, p, o);
+            String pattern = NodeFmtLib.strNT(s) + " " + NodeFmtLib.strNT(p) + " " + NodeFmtLib.strNT(o);
+            Node record = NodeFactory.createBlankNode();
+            dsg.add(LABELS_GRAPH, record, PATTERN, NodeFactory.createLiteralString(pattern));
+            dsg.add(LABELS_GRAPH, record, LABEL, NodeFactory.createLiteralString(LABEL_VALUE));
+        }
+        return dsg;
+    }
+
+    private static RequestFK request(DatasetGraph dsg, Lang lang, boolean labelsGraph) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(HttpNames.hContentType, lang.getContentType().getContentTypeStr());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if ( labelsGraph ) {
+            RDFWriter.source(dsg).lang(lang).output(out);
+        } else {
+            headers.put(SysABAC.H_SECURITY_LABEL, LABEL_VALUE);
+            RDFWriter.source(dsg.getDefaultGraph()).lang(lang).output(out);
+        }
+        return new RequestFK(TOPIC, headers, out.toByteArray());
+    }
+
+    private static ConsumerRecords<String, RequestFK> consumerRecords(List<RequestFK> requests) {
+        List<ConsumerRecord<String, RequestFK>> records = new ArrayList<>();
+        long offset = 0;
+        for ( RequestFK request : requests )
+            records.add(new ConsumerRecord<>(TOPIC, 0, offset++, "key", request));
+        return new ConsumerRecords<>(Map.of(new TopicPartition(TOPIC, 0), records));
+    }
+}